@@ -0,0 +1,77 @@
+package schmitt.mmas;
+
+import schmitt.mmas.graph.Edge;
+import schmitt.mmas.graph.Graph;
+import schmitt.mmas.graph.Node;
+import schmitt.mmas.reader.JSONConverter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Graphs of the benchmarks, read from the file in the mmas.graph property (joinville.json by default).
+ */
+public class BenchmarkGraphs {
+
+    public static final String GRAPH_FILE = System.getProperty("mmas.graph", "src/test/resources/joinville.json");
+
+    // node the subgraphs grow from
+    public static final int CENTER = 553;
+
+    private static Graph graph;
+
+    public static synchronized Graph load() {
+        if(graph == null) {
+            graph = JSONConverter.readGraph(GRAPH_FILE);
+            if(graph == null) {
+                throw new RuntimeException("Cannot read " + GRAPH_FILE);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * The first size nodes a breadth-first search from CENTER reaches, with the edges between them. Every node of
+     * the subgraph is reachable from CENTER within it; the last one added is the farthest.
+     */
+    public static List<Node> reach(int size) {
+        Graph graph = load();
+        List<Node> reached = new ArrayList<>();
+        Set<Node> seen = new HashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(graph.getNode(CENTER));
+        seen.add(graph.getNode(CENTER));
+        while(!queue.isEmpty() && reached.size() < size) {
+            Node node = queue.poll();
+            reached.add(node);
+            for(Edge edge : node.getEdges()) {
+                if(seen.add(edge.getTo())) {
+                    queue.add(edge.getTo());
+                }
+            }
+        }
+        return reached;
+    }
+
+    public static Graph subgraph(int size) {
+        List<Node> nodes = reach(size);
+        Set<Node> inside = new HashSet<>(nodes);
+        Graph subgraph = new Graph();
+        for(Node node : nodes) {
+            subgraph.addNode(node.getId(), node.getX(), node.getY());
+        }
+        for(Node node : nodes) {
+            for(Edge edge : node.getEdges()) {
+                if(inside.contains(edge.getTo())) {
+                    subgraph.addEdge(node.getId(), edge.getTo().getId(), edge.getDistance());
+                }
+            }
+        }
+        return subgraph;
+    }
+
+}
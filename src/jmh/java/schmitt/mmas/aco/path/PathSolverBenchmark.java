@@ -0,0 +1,82 @@
+package schmitt.mmas.aco.path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import schmitt.mmas.BenchmarkGraphs;
+import schmitt.mmas.graph.Graph;
+import schmitt.mmas.graph.Node;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A colony from the center of the benchmark subgraph to its farthest node, so routes grow with the graph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathSolverBenchmark {
+
+    @Param({"500", "1500", "2796"})
+    public int nodes;
+
+    @Param({"false", "true"})
+    public boolean lazyEvaporation;
+
+    private PathSolver solver;
+
+    private Ant ant;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Graph graph = BenchmarkGraphs.subgraph(nodes);
+        List<Node> reached = BenchmarkGraphs.reach(nodes);
+        solver = new PathSolver(graph, graph.getNode(BenchmarkGraphs.CENTER),
+                graph.getNode(reached.get(reached.size() - 1).getId()));
+        solver.setSeed(1);
+        solver.setLazyEvaporation(lazyEvaporation);
+        solver.setup();
+        ant = solver.getGlobals().ants[0];
+    }
+
+    @Benchmark
+    public double heuristicTour() {
+        ant.heuristicTour();
+        return ant.getCost();
+    }
+
+    @Benchmark
+    public double nnTour() {
+        ant.nnTour();
+        return ant.getCost();
+    }
+
+    /**
+     * Construction, statistics, pheromone update and search control of one iteration; the colony keeps evolving
+     * across invocations, as it does in a run.
+     */
+    @Benchmark
+    public int iterate() {
+        solver.iterate();
+        return solver.getGlobals().iteration;
+    }
+
+    @Benchmark
+    public double calculateBranchingFactor() {
+        return solver.calculateBranchingFactor();
+    }
+
+}
@@ -0,0 +1,81 @@
+package schmitt.mmas.aco.router;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import schmitt.mmas.BenchmarkGraphs;
+import schmitt.mmas.graph.Graph;
+import schmitt.mmas.graph.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Router iterations over targets drawn from the whole graph. Legs are solved exactly, so no leg colony runs
+ * next to the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteSolverBenchmark {
+
+    @Param({"8", "32"})
+    public int targets;
+
+    @Param({"NONE", "ITERATION_BEST"})
+    public LocalSearchMode localSearch;
+
+    private RouteSolver solver;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Graph graph = BenchmarkGraphs.load();
+        List<Node> reached = BenchmarkGraphs.reach(graph.getNodesLength());
+        SplittableRandom random = new SplittableRandom(1);
+        List<Node> target = new ArrayList<>();
+        target.add(graph.getNode(BenchmarkGraphs.CENTER));
+        while(target.size() < targets) {
+            Node node = reached.get(random.nextInt(reached.size()));
+            if(!target.contains(node)) {
+                target.add(node);
+            }
+        }
+        solver = new RouteSolver(graph, target.get(0), target);
+        solver.setSeed(1);
+        solver.setLegMode(LegMode.EXACT);
+        solver.setLocalSearch(localSearch);
+        solver.setup();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        solver.shutdown();
+    }
+
+    @Benchmark
+    public double iterate() {
+        solver.iterate();
+        return solver.getResultCost();
+    }
+
+    @Benchmark
+    public double calculateBranchingFactor() {
+        return solver.calculateBranchingFactor();
+    }
+
+}
@@ -0,0 +1,27 @@
+package schmitt.mmas.reader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import schmitt.mmas.BenchmarkGraphs;
+import schmitt.mmas.graph.Graph;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONConverterBenchmark {
+
+    @Benchmark
+    public Graph readGraph() {
+        return JSONConverter.readGraph(BenchmarkGraphs.GRAPH_FILE);
+    }
+
+}
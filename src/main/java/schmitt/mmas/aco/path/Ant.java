@@ -1,54 +1,61 @@
 package schmitt.mmas.aco.path;
 
-import schmitt.mmas.graph.Edge;
-import schmitt.mmas.graph.Node;
-
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.SplittableRandom;
 
 public class Ant {
 
     private Globals _globals;
 
-    private Stack<Node> route;
+    // node indexes of the route, path[0] is the source
+    private int[] path;
+
+    // edge ids of the route, edges[i] goes from path[i] to path[i + 1]
+    private int[] edges;
+
+    // number of nodes in the route
+    private int length;
+
+    // a node is visited in the current tour when its stamp equals epoch
+    private int[] visited;
+
+    private int epoch;
 
-    private Set<Node> visited;
+    private double[] probabilities;
+
+    private SplittableRandom random;
 
     private double cost;
 
+    // steps back out of dead ends in the last tour
+    private int backtracks;
+
+    // the last tour outlived lifeTime and was replaced by the nearest neighbour tour
+    private boolean fellBack;
+
     public Ant(Globals globals) {
         _globals = globals;
-        route = new Stack<>();
-        visited = new HashSet<>();
+        path = new int[16];
+        edges = new int[16];
+        visited = new int[globals.compact.getNodesLength()];
+        probabilities = new double[globals.compact.getMaxDegree()];
+        random = globals.random.split();
         cost = Double.MAX_VALUE;
     }
 
     public void heuristicTour() {
-        visited = new HashSet<>();
-        route = new Stack<>();
-        cost = Double.MAX_VALUE;
-        Node current = _globals.sourceNode;
-        route.add(current);
-        visited.add(current);
-        while (current != _globals.targetNode) {
-            Node nextNode = selectNextHeuristicNode(current);
-            if(nextNode == null) {
-                route.pop();
-                current = route.peek();
+        int current = startTour();
+        while (current != _globals.targetNode.getIndex()) {
+            int nextEdge = selectNextHeuristicEdge(current);
+            if(nextEdge < 0) {
+                current = backtrack();
             } else {
-                route.push(nextNode);
-                visited.add(nextNode);
-                if(nextNode == _globals.targetNode) {
-                    break;
-                } else {
-                    current = nextNode;
-                }
+                current = moveTo(nextEdge);
             }
-            if(route.size() > _globals.lifeTime) {
-                Ant ant = _globals.nnAnt.clone();
-                this.setRoute(ant.getRoute());
-                this.setVisited(ant.getVisited());
+            if(length > _globals.lifeTime && current != _globals.targetNode.getIndex()) {
+                copyFrom(_globals.nnAnt);
+                fellBack = true;
                 break;
             }
         }
@@ -56,107 +63,165 @@ public class Ant {
     }
 
     public void nnTour() {
-        visited = new HashSet<>();
-        route = new Stack<>();
-        cost = Double.MAX_VALUE;
-        Node current = _globals.sourceNode;
-        route.add(current);
-        visited.add(current);
-        while (current != _globals.targetNode) {
-            Node nextNode = selectNextNearNode(current);
-            if(nextNode == null) {
-                route.pop();
-                current = route.peek();
+        int current = startTour();
+        while (current != _globals.targetNode.getIndex()) {
+            int nextEdge = selectNextNearEdge(current);
+            if(nextEdge < 0) {
+                current = backtrack();
             } else {
-                route.push(nextNode);
-                visited.add(nextNode);
-                if(nextNode == _globals.targetNode) {
-                    break;
-                } else {
-                    current = nextNode;
-                }
+                current = moveTo(nextEdge);
             }
         }
         calculateCost();
     }
 
-    private Node selectNextNearNode(Node currentNode) {
-        if(currentNode.getEdges().isEmpty()) return null;
+    private int startTour() {
+        if(++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+        cost = Double.MAX_VALUE;
+        backtracks = 0;
+        fellBack = false;
+        int source = _globals.sourceNode.getIndex();
+        path[0] = source;
+        length = 1;
+        visited[source] = epoch;
+        return source;
+    }
+
+    private int moveTo(int edge) {
+        if(length == path.length) {
+            path = Arrays.copyOf(path, length * 2);
+            edges = Arrays.copyOf(edges, length * 2);
+        }
+        int node = _globals.compact.getTargets()[edge];
+        edges[length - 1] = edge;
+        path[length++] = node;
+        visited[node] = epoch;
+        return node;
+    }
+
+    private int backtrack() {
+        backtracks++;
+        if(--length == 0) {
+            throw new EmptyStackException();
+        }
+        return path[length - 1];
+    }
+
+    private int selectNextNearEdge(int current) {
+        int[] offsets = _globals.compact.getOffsets();
+        int[] targets = _globals.compact.getTargets();
+        double[] heuristic = _globals.heuristic.getValue();
         double maxGain = 0.0;
-        Node nextNode = null;
-        for(Edge edge : currentNode.getEdges()) {
-            if(!visited.contains(edge.getTo()) && _globals.HEURISTIC(edge) >= maxGain) {
-                nextNode = edge.getTo();
-                maxGain = _globals.HEURISTIC(edge);
+        int nextEdge = -1;
+        for(int e = offsets[current]; e < offsets[current + 1]; e++) {
+            if(visited[targets[e]] != epoch && heuristic[e] >= maxGain) {
+                nextEdge = e;
+                maxGain = heuristic[e];
             }
         }
-        return nextNode;
+        return nextEdge;
     }
 
-    private Node selectNextHeuristicNode(Node currentNode) {
-        if(currentNode.getEdges().isEmpty()) return null;
-        Edge edges[] = currentNode.getEdges().toArray(new Edge[] {});
-        double[] probabilities = new double[currentNode.getEdges().size()];
+    private int selectNextHeuristicEdge(int current) {
+        int[] offsets = _globals.compact.getOffsets();
+        int[] targets = _globals.compact.getTargets();
+        int first = offsets[current];
+        int degree = offsets[current + 1] - first;
+        if(degree == 0) return -1;
         double cumulativeSum = 0.0;
-        for(int i = 0; i < edges.length; i++) {
-            if(visited.contains(edges[i].getTo())) {
+        for(int i = 0; i < degree; i++) {
+            if(visited[targets[first + i]] == epoch) {
                 probabilities[i] = 0.0;
             } else {
-                probabilities[i] = edges[i].getTotal();
+                probabilities[i] = _globals.total(first + i);
                 cumulativeSum += probabilities[i];
             }
         }
         if(cumulativeSum <= 0.0) {
-            return null;
+            return -1;
         } else {
-            double rand = Math.random() * cumulativeSum;
+            double rand = random.nextDouble() * cumulativeSum;
             int i = 0;
             double partialSum = probabilities[i];
             while (partialSum <= rand) {
                 i++;
+                if(i == degree) {
+                    return -1;
+                }
                 partialSum += probabilities[i];
             }
-            if(i == edges.length) {
-                return null;
-            } else {
-                return edges[i].getTo();
+            return first + i;
+        }
+    }
+
+    /**
+     * Replaces the route by the given node indexes, which must be a path of the graph.
+     */
+    public void setRoute(int[] nodes) {
+        if(nodes.length == 0 || nodes[0] != _globals.sourceNode.getIndex()) {
+            throw new RuntimeException("Route must start at the source node");
+        }
+        startTour();
+        for(int i = 1; i < nodes.length; i++) {
+            int edge = _globals.compact.edgeIndex(path[length - 1], nodes[i]);
+            if(edge < 0) {
+                throw new RuntimeException("Route is not a path of the graph");
             }
+            moveTo(edge);
         }
+        calculateCost();
     }
 
     public void calculateCost() {
         cost = 0.0;
-        for(int i = 0; i < route.size() - 1; i++) {
-            cost += _globals.calculateDistanceInMeters(route.get(i), route.get(i + 1));
+        for(int i = 0; i < length - 1; i++) {
+            cost += _globals.calculateDistanceInMeters(path[i], path[i + 1]);
         }
     }
 
-    public Ant clone() {
-        Ant ant = new Ant(_globals);
-        ant.setCost(this.getCost());
-        for(int i = 0; i < getRoute().size(); i++) {
-            ant.getRoute().push(getRoute().get(i));
+    /**
+     * Copies the route and cost of another ant into this one, reusing this ant's buffers.
+     */
+    public void copyFrom(Ant ant) {
+        if(path.length < ant.length) {
+            path = new int[ant.path.length];
+            edges = new int[ant.edges.length];
         }
-        for(Node node : getVisited()) {
-            ant.getVisited().add(node);
-        }
-        return ant;
+        System.arraycopy(ant.path, 0, path, 0, ant.length);
+        System.arraycopy(ant.edges, 0, edges, 0, Math.max(ant.length - 1, 0));
+        length = ant.length;
+        cost = ant.cost;
+    }
+
+    /**
+     * Empties the route, as a freshly allocated ant.
+     */
+    public void reset() {
+        length = 0;
+        cost = Double.MAX_VALUE;
+    }
+
+    public int getBacktracks() {
+        return backtracks;
     }
 
-    public Stack<Node> getRoute() {
-        return route;
+    public boolean isFellBack() {
+        return fellBack;
     }
 
-    public void setRoute(Stack<Node> route) {
-        this.route = route;
+    public int[] getPath() {
+        return path;
     }
 
-    public Set<Node> getVisited() {
-        return visited;
+    public int[] getEdges() {
+        return edges;
     }
 
-    public void setVisited(Set<Node> visited) {
-        this.visited = visited;
+    public int getLength() {
+        return length;
     }
 
     public double getCost() {
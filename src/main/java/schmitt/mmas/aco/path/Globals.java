@@ -1,20 +1,33 @@
 package schmitt.mmas.aco.path;
 
-import schmitt.mmas.graph.Edge;
+import schmitt.mmas.graph.CompactGraph;
 import schmitt.mmas.graph.Graph;
 import schmitt.mmas.graph.Node;
+import schmitt.mmas.utils.StatisticsFormat;
 import schmitt.mmas.utils.Timer;
 
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
 public class Globals {
 
+    public static final double DEFAULT_BETA = 2.0;
+
     public Graph graph;
 
+    public CompactGraph compact;
+
     public Node sourceNode;
 
     public Node targetNode;
 
+    public TargetHeuristic heuristic;
+
     public Timer timer;
 
+    // master random source of the colony, each ant draws from its own split of it
+    public SplittableRandom random;
+
     public int numberAnts;
 
     public double alpha;
@@ -25,6 +38,12 @@ public class Globals {
 
     public double branchFactor;
 
+    // iterations between two stagnation checks
+    public int branchCheckInterval;
+
+    // above 0, the branching factor is estimated from a sample of nodes within this error
+    public double branchSampleError;
+
     public double maxTime; // In seconds
 
     public double maxIterations;
@@ -41,6 +60,32 @@ public class Globals {
 
     public double trailMin;
 
+    // pheromone and total information by edge id, private to this colony
+    public double[] pheromone;
+
+    public double[] total;
+
+    // lazy evaporation: pheromone[e] holds the (clamped) trail deposited when the evaporation count was
+    // touched[e] and total is worked out on read, so an iteration only writes the deposit path
+    public boolean lazyEvaporation;
+
+    public int[] touched;
+
+    public int evaporations;
+
+    // evaporation count and trail of the last reset of every trail
+    public int resetAt;
+
+    public double resetTrail;
+
+    // (1 - rho) ^ age, beyond its length any trail is below trailMin
+    public double[] decay;
+
+    // build the ants of an iteration concurrently on antPool
+    public boolean parallelAnts;
+
+    public ForkJoinPool antPool;
+
     public Ant[] ants;
 
     public Ant bestSoFar;
@@ -49,21 +94,40 @@ public class Globals {
 
     public Ant nnAnt;
 
+    // node indexes of a known route to start from, may be null
+    public int[] initialRoute;
+
     public int uGb;
 
     public int lifeTime;
 
     public int bestIntervalStop;
 
+    // iterations between two statistics records, 0 for none
+    public int statisticsInterval;
+
+    // records kept by the statistics recorder
+    public int statisticsCapacity;
+
+    // file the statistics are written to, may be null
+    public String statisticsFile;
+
+    public StatisticsFormat statisticsFormat;
+
     public Globals() {
         timer = new Timer();
+        parallelAnts = false;
+        antPool = ForkJoinPool.commonPool();
+        random = new SplittableRandom();
         numberAnts = 15;
         alpha = 1.0;
-        beta = 2.0;
+        beta = DEFAULT_BETA;
         rho = 0.05;
         maxIterations = 500000.0;
         maxTime = 10000.0;
         branchFactor = 1.00001;
+        branchCheckInterval = 100;
+        branchSampleError = 0.0;
         lambda = 0.05;
         iteration = 0;
         restartFoundBestIteration = 0;
@@ -71,19 +135,83 @@ public class Globals {
         uGb = 25;
         lifeTime = Integer.MAX_VALUE;
         bestIntervalStop = 350;
+        statisticsInterval = 0;
+        statisticsCapacity = 1024;
+        statisticsFormat = StatisticsFormat.CSV;
+    }
+
+    public double pheromone(int edge) {
+        if(!lazyEvaporation) {
+            return pheromone[edge];
+        }
+        double trail;
+        int age;
+        if(touched[edge] <= resetAt) {
+            trail = resetTrail;
+            age = evaporations - resetAt;
+        } else {
+            trail = pheromone[edge];
+            age = evaporations - touched[edge];
+        }
+        if(age >= decay.length) {
+            return trailMin;
+        }
+        return Math.max(trailMin, Math.min(trailMax, trail * decay[age]));
+    }
+
+    public double total(int edge) {
+        if(!lazyEvaporation) {
+            return total[edge];
+        }
+        return pheromonePower(pheromone(edge)) * heuristic.getValueBeta()[edge];
     }
 
-    public double HEURISTIC(Edge edge) {
-        double distToTarget = calculateDistanceInMeters(edge.getTo(), targetNode);
-        double cost = 1.0 / (edge.getDistance() + distToTarget);
-        return cost;
+    /**
+     * trail ^ alpha. The common exponents skip Math.pow; both shortcuts give the very same double as
+     * Math.pow, other exponents (even integer ones) would not when multiplied out, so they keep it.
+     */
+    public double pheromonePower(double trail) {
+        if(alpha == 1.0) {
+            return trail;
+        }
+        if(alpha == 2.0) {
+            return trail * trail;
+        }
+        return Math.pow(trail, alpha);
+    }
+
+    public double HEURISTIC(int edge) {
+        return heuristic.getValue()[edge];
     }
 
     public double calculateDistanceInMeters(Node from, Node to) {
+        return calculateDistanceInMeters(from.getX(), from.getY(), to.getX(), to.getY());
+    }
+
+    public double calculateDistanceInMeters(int from, int to) {
+        return calculateDistanceInMeters(compact.getX()[from], compact.getY()[from], compact.getX()[to], compact.getY()[to]);
+    }
+
+    /**
+     * Cost of every edge as the ants measure it, by edge id.
+     */
+    public static double[] calculateEdgeCosts(CompactGraph compact) {
+        double[] x = compact.getX();
+        double[] y = compact.getY();
+        int[] sources = compact.getSources();
+        int[] targets = compact.getTargets();
+        double[] costs = new double[compact.getEdgesLength()];
+        for(int e = 0; e < costs.length; e++) {
+            costs[e] = calculateDistanceInMeters(x[sources[e]], y[sources[e]], x[targets[e]], y[targets[e]]);
+        }
+        return costs;
+    }
+
+    public static double calculateDistanceInMeters(double fromX, double fromY, double toX, double toY) {
         double earthRadius = 6371000;
-        double dY = Math.toRadians(from.getY() - to.getY());
-        double dX = Math.toRadians(from.getX() - to.getX());
-        double a = Math.sin(dY / 2.0) * Math.sin(dY / 2.0) + Math.cos(Math.toRadians(from.getY())) * Math.cos(Math.toRadians(to.getY())) * Math.sin(dX / 2.0) * Math.sin(dX / 2.0);
+        double dY = Math.toRadians(fromY - toY);
+        double dX = Math.toRadians(fromX - toX);
+        double a = Math.sin(dY / 2.0) * Math.sin(dY / 2.0) + Math.cos(Math.toRadians(fromY)) * Math.cos(Math.toRadians(toY)) * Math.sin(dX / 2.0) * Math.sin(dX / 2.0);
         double c = 2.0 * Math.atan2(Math.sqrt(a), Math.sqrt(1.0 - a));
         return earthRadius * c + 1.0;
     }
@@ -0,0 +1,213 @@
+package schmitt.mmas.aco.path;
+
+import schmitt.mmas.graph.Graph;
+import schmitt.mmas.graph.Node;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Island model for one leg: independent colonies on their own threads, each with its own pheromone over the shared
+ * graph and heuristic. Every migrationInterval iterations the islands meet at a barrier and each one takes the best
+ * so far of its neighbour on a ring as its restart best. Between migrations every island runs the sequential
+ * algorithm unchanged.
+ *
+ * The islands stop together, at the first migration where all of them meet their termination condition.
+ */
+public class IslandPathSolver {
+
+    // seeds the islands
+    private SplittableRandom random;
+
+    private PathSolver[] islands;
+
+    // by island, copy of the island's best so far taken at each migration
+    private Ant[] migrants;
+
+    private int migrationInterval;
+
+    private volatile boolean stop;
+
+    private PathListener pathListener;
+
+    // best cost handed to pathListener
+    private double bestCost;
+
+    public IslandPathSolver(Graph graph, Node sourceNode, Node targetNode, int numberIslands) {
+        if(numberIslands < 1) {
+            throw new RuntimeException("Number of islands must be positive");
+        }
+        random = new SplittableRandom();
+        TargetHeuristic heuristic = new TargetHeuristic(graph.getCompact(), targetNode.getIndex(), Globals.DEFAULT_BETA);
+        islands = new PathSolver[numberIslands];
+        for(int i = 0; i < numberIslands; i++) {
+            islands[i] = new PathSolver(graph, sourceNode, targetNode, heuristic);
+            islands[i].setPathListener(this::onIslandBest);
+        }
+        migrationInterval = 25;
+        bestCost = Double.MAX_VALUE;
+    }
+
+    /**
+     * Sets up every island, one after the other; the first one computes the shared heuristic.
+     */
+    public void setup() {
+        migrants = new Ant[islands.length];
+        for(int i = 0; i < islands.length; i++) {
+            islands[i].setSeed(random.nextLong());
+            islands[i].setup();
+            migrants[i] = new Ant(islands[i].getGlobals());
+        }
+    }
+
+    /**
+     * Runs the islands on a thread each until they stop. When an island fails the others are stopped and interrupted,
+     * which leaves the barrier broken, and its exception is rethrown.
+     */
+    public void solve() {
+        stop = false;
+        CyclicBarrier barrier = new CyclicBarrier(islands.length, this::migrate);
+        ExecutorService workers = Executors.newFixedThreadPool(islands.length);
+        try {
+            CompletionService<Void> runs = new ExecutorCompletionService<>(workers);
+            for(PathSolver island : islands) {
+                runs.submit(() -> run(island, barrier), null);
+            }
+            for(int i = 0; i < islands.length; i++) {
+                runs.take().get();
+            }
+        } catch (ExecutionException e) {
+            stop = true;
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            stop = true;
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            workers.shutdownNow();
+        }
+        for(PathSolver island : islands) {
+            island.finish();
+        }
+    }
+
+    private void run(PathSolver island, CyclicBarrier barrier) {
+        try {
+            while(!stop) {
+                for(int i = 0; i < migrationInterval && !stop; i++) {
+                    island.iterate();
+                }
+                if(stop) {
+                    return;
+                }
+                barrier.await();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            // another island failed, its exception is the one reported
+        } catch (RuntimeException e) {
+            stop = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Barrier action, runs while every island waits.
+     */
+    private void migrate() {
+        boolean terminate = true;
+        for(int i = 0; i < islands.length; i++) {
+            migrants[i].copyFrom(islands[i].getGlobals().bestSoFar);
+            terminate &= islands[i].terminateCondition();
+        }
+        for(int i = 0; i < islands.length; i++) {
+            islands[i].acceptMigrant(migrants[(i + islands.length - 1) % islands.length]);
+        }
+        stop = terminate;
+    }
+
+    private synchronized void onIslandBest(Integer[] route, Double cost) {
+        if(cost < bestCost) {
+            bestCost = cost;
+            if(pathListener != null) {
+                pathListener.onBestRouteFound(route, cost);
+            }
+        }
+    }
+
+    private PathSolver bestIsland() {
+        PathSolver best = islands[0];
+        for(int i = 1; i < islands.length; i++) {
+            if(islands[i].getResultCost() < best.getResultCost()) {
+                best = islands[i];
+            }
+        }
+        return best;
+    }
+
+    public Integer[] getResultRoute() {
+        return bestIsland().getResultRoute();
+    }
+
+    public double getResultCost() {
+        return bestIsland().getResultCost();
+    }
+
+    /**
+     * Seeds the islands, must be called before setup() for a reproducible run. Migrations happen at fixed
+     * iterations, so a seeded run only depends on when the termination condition is met.
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Iterations every island runs between two migrations, 25 by default.
+     */
+    public void setMigrationInterval(int migrationInterval) {
+        if(migrationInterval < 1) {
+            throw new RuntimeException("Migration interval must be positive");
+        }
+        this.migrationInterval = migrationInterval;
+    }
+
+    public void setInitialRoute(int[] route) {
+        for(PathSolver island : islands) {
+            island.setInitialRoute(route);
+        }
+    }
+
+    public void setLazyEvaporation(boolean lazyEvaporation) {
+        for(PathSolver island : islands) {
+            island.setLazyEvaporation(lazyEvaporation);
+        }
+    }
+
+    public PathSolver getIsland(int index) {
+        return islands[index];
+    }
+
+    public int getNumberIslands() {
+        return islands.length;
+    }
+
+    public PathListener getPathListener() {
+        return pathListener;
+    }
+
+    /**
+     * Called on the island thread that found a route better than any island before it.
+     */
+    public void setPathListener(PathListener pathListener) {
+        this.pathListener = pathListener;
+    }
+
+    public boolean isFinished() {
+        return islands[0].isFinished();
+    }
+}
@@ -1,51 +1,111 @@
 package schmitt.mmas.aco.path;
 
-import schmitt.mmas.graph.Edge;
 import schmitt.mmas.graph.Graph;
 import schmitt.mmas.graph.Node;
+import schmitt.mmas.metrics.Phase;
+import schmitt.mmas.metrics.SolverMetrics;
+import schmitt.mmas.utils.LatestValueDispatcher;
+import schmitt.mmas.utils.Solution;
+import schmitt.mmas.utils.SolutionHandle;
+import schmitt.mmas.utils.StatisticsFormat;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class PathSolver {
 
+    // chance that a sampled branching factor is off by more than branchSampleError
+    private static final double BRANCH_SAMPLE_DELTA = 0.05;
+
     private Globals _globals;
 
     private Statistics statistics;
 
+    private SolverMetrics metrics;
+
     private PathListener pathListener;
 
+    private LatestValueDispatcher<Solution> asyncPathListener;
+
+    private volatile SolutionHandle solution;
+
     private boolean finished = false;
 
+    private volatile boolean stopped = false;
+
+    // nodes with edges and a row of scratch trails for calculateBranchingFactor
+    private int[] branchingNodes;
+
+    private double[] branchingTrails;
+
+    private SplittableRandom branchingRandom;
+
     public PathSolver(Graph graph, Node sourceNode, Node targetNode) {
+        this(graph, sourceNode, targetNode, null);
+    }
+
+    /**
+     * @param heuristic heuristic towards targetNode shared with other colonies, or null to compute a private one
+     */
+    public PathSolver(Graph graph, Node sourceNode, Node targetNode, TargetHeuristic heuristic) {
         _globals = new Globals();
         _globals.graph = graph;
+        _globals.compact = graph.getCompact();
         _globals.sourceNode = sourceNode;
         _globals.targetNode = targetNode;
+        if(heuristic == null) {
+            heuristic = new TargetHeuristic(_globals.compact, targetNode.getIndex(), _globals.beta);
+        } else if(heuristic.getTarget() != targetNode.getIndex() || heuristic.getBeta() != _globals.beta) {
+            throw new RuntimeException("Heuristic must be built for the same target and beta");
+        }
+        _globals.heuristic = heuristic;
         statistics = new Statistics(_globals);
+        metrics = new SolverMetrics();
     }
 
     public void setup() {
         _globals.timer.startTimer();
+        _globals.heuristic.compute();
         allocateAnts();
         restartMatrices();
+        statistics.start();
         //System.out.println("Configuration took: " + _globals.timer.elapsedTime());
         initTry();
     }
 
     public void solve() {
         while(!terminateCondition()) {
-            constructSolutions();
-            updateStatistics();
-            pheromoneTrailUpdate();
-            searchControl();
-            _globals.iteration++;
-            //statistics.calculateStatistics();
+            iterate();
         }
+        finish();
+    }
+
+    void finish() {
+        statistics.close();
         System.out.println("Finished!!! " + _globals.sourceNode.getId() + "->" + _globals.targetNode.getId() + " " + _globals.bestSoFar.getCost() + " (" + _globals.iteration + ")");
         finished = true;
     }
 
+    /**
+     * One iteration of the colony, visible to the benchmarks.
+     */
+    void iterate() {
+        long time = System.nanoTime();
+        constructSolutions();
+        time = metrics.time(Phase.CONSTRUCT_SOLUTIONS, time);
+        updateStatistics();
+        statistics.calculateStatistics();
+        time = metrics.time(Phase.UPDATE_STATISTICS, time);
+        pheromoneTrailUpdate();
+        time = metrics.time(Phase.PHEROMONE_UPDATE, time);
+        searchControl();
+        metrics.time(Phase.SEARCH_CONTROL, time);
+        metrics.onIteration(_globals.numberAnts);
+        _globals.iteration++;
+    }
+
     private void allocateAnts() {
         _globals.ants = new Ant[_globals.numberAnts];
         for(int i = 0; i < _globals.numberAnts; i++) {
@@ -53,12 +113,21 @@ public class PathSolver {
         }
         _globals.bestSoFar = new Ant(_globals);
         _globals.restartBestAnt = new Ant(_globals);
+        _globals.nnAnt = new Ant(_globals);
     }
 
     private void restartMatrices() {
-        for(Edge edge : _globals.graph.getEdges()) {
-            edge.setPheromone(0.0);
-            edge.setTotal(0.0);
+        _globals.pheromone = new double[_globals.compact.getEdgesLength()];
+        if(_globals.lazyEvaporation) {
+            _globals.touched = new int[_globals.compact.getEdgesLength()];
+            _globals.evaporations = 0;
+            int maxAge = (int) Math.ceil(Math.log(2.0 * _globals.graph.getNodes().size()) / -Math.log(1.0 - _globals.rho)) + 1;
+            _globals.decay = new double[maxAge + 1];
+            for(int age = 0; age < _globals.decay.length; age++) {
+                _globals.decay[age] = Math.pow(1.0 - _globals.rho, age);
+            }
+        } else {
+            _globals.total = new double[_globals.compact.getEdgesLength()];
         }
     }
 
@@ -68,64 +137,108 @@ public class PathSolver {
         _globals.restartFoundBestIteration = 0;
         _globals.foundBestIteration = 0;
         _globals.ants[0].nnTour();
-        _globals.bestSoFar = _globals.ants[0];
-        _globals.nnAnt = _globals.bestSoFar.clone();
-        _globals.lifeTime = (int) (_globals.bestSoFar.getRoute().size() * 1.5);
-        _globals.trailMax = 1.0 / (_globals.rho * _globals.ants[0].getCost());
+        _globals.bestSoFar.copyFrom(_globals.ants[0]);
+        _globals.nnAnt.copyFrom(_globals.bestSoFar);
+        if(_globals.initialRoute != null) {
+            _globals.ants[0].setRoute(_globals.initialRoute);
+            if(_globals.ants[0].getCost() < _globals.bestSoFar.getCost()) {
+                _globals.bestSoFar.copyFrom(_globals.ants[0]);
+            }
+        }
+        _globals.lifeTime = (int) (_globals.bestSoFar.getLength() * 1.5);
+        _globals.trailMax = 1.0 / (_globals.rho * _globals.bestSoFar.getCost());
         _globals.trailMin = _globals.trailMax / (2.0 * _globals.graph.getNodes().size());
         initPheromoneTrails(_globals.trailMax);
         computeTotalInformation();
-        if(this.pathListener != null) {
-            this.pathListener.onBestRouteFound(this.getResultRoute(), this.getResultCost());
-        }
+        onBestRouteFound();
     }
 
     private void initPheromoneTrails(double trail) {
-        for(Edge edge : _globals.graph.getEdges()) {
-            edge.setPheromone(trail);
-            edge.setTotal(trail);
+        if(_globals.lazyEvaporation) {
+            _globals.resetAt = _globals.evaporations;
+            _globals.resetTrail = trail;
+        } else {
+            Arrays.fill(_globals.pheromone, trail);
+            Arrays.fill(_globals.total, trail);
         }
     }
 
     private void computeTotalInformation() {
-        for(Edge edge : _globals.graph.getEdges()) {
-            double value = Math.pow(edge.getPheromone(), _globals.alpha) * Math.pow(_globals.HEURISTIC(edge), _globals.beta);
-            edge.setTotal(value);
+        if(_globals.lazyEvaporation) {
+            return;
+        }
+        double[] valueBeta = _globals.heuristic.getValueBeta();
+        for(int e = 0; e < _globals.total.length; e++) {
+            _globals.total[e] = _globals.pheromonePower(_globals.pheromone[e]) * valueBeta[e];
         }
     }
 
-    private boolean terminateCondition() {
-        return  (_globals.timer.elapsedTime() > _globals.maxTime * 1000) ||
+    boolean terminateCondition() {
+        return  stopped ||
+                (_globals.timer.elapsedTime() > _globals.maxTime * 1000) ||
                 (_globals.iteration > _globals.maxIterations) ||
                 (_globals.iteration - _globals.foundBestIteration) > _globals.bestIntervalStop;
     }
 
     private void constructSolutions() {
+        if(_globals.parallelAnts) {
+            _globals.antPool.submit(() -> Arrays.stream(_globals.ants).parallel().forEach(Ant::heuristicTour)).join();
+        } else {
+            for(Ant ant : _globals.ants) {
+                ant.heuristicTour();
+            }
+        }
+        int backtracks = 0;
+        int fallbacks = 0;
         for(Ant ant : _globals.ants) {
-            ant.heuristicTour();
+            backtracks += ant.getBacktracks();
+            if(ant.isFellBack()) {
+                fallbacks++;
+            }
         }
+        metrics.addBacktracks(backtracks);
+        metrics.addLifeTimeFallbacks(fallbacks);
     }
 
     public void updateStatistics() {
         Ant iterationBestAnt = findBestAnt();
         if(iterationBestAnt.getCost() < _globals.bestSoFar.getCost()) {
-            _globals.bestSoFar = iterationBestAnt.clone();
-            _globals.restartBestAnt = iterationBestAnt.clone();
+            _globals.bestSoFar.copyFrom(iterationBestAnt);
+            _globals.restartBestAnt.copyFrom(iterationBestAnt);
             _globals.foundBestIteration = _globals.iteration;
             _globals.restartFoundBestIteration = _globals.iteration;
             _globals.trailMax = 1.0 / (_globals.rho * _globals.bestSoFar.getCost());
             _globals.trailMin = _globals.trailMax / (2.0 * _globals.graph.getNodes().size());
             //System.out.println("\t\t" + _globals.sourceNode.getId() + "->" + _globals.targetNode.getId() + " best found = " + _globals.bestSoFar.getCost() + " at iteration " + _globals.iteration);
-            if(this.pathListener != null) {
-                this.pathListener.onBestRouteFound(getResultRoute(), getResultCost());
-            }
+            onBestRouteFound();
         }
         if(iterationBestAnt.getCost() < _globals.restartBestAnt.getCost()) {
-            _globals.restartBestAnt = iterationBestAnt.clone();
+            _globals.restartBestAnt.copyFrom(iterationBestAnt);
+            _globals.restartFoundBestIteration = _globals.iteration;
+        }
+    }
+
+    /**
+     * Takes in the best ant of another colony of the same leg as the restart best, and as the best so far when it
+     * beats that too. Called between iterations.
+     */
+    void acceptMigrant(Ant migrant) {
+        if(migrant.getCost() < _globals.restartBestAnt.getCost()) {
+            _globals.restartBestAnt.copyFrom(migrant);
             _globals.restartFoundBestIteration = _globals.iteration;
         }
+        if(migrant.getCost() < _globals.bestSoFar.getCost()) {
+            _globals.bestSoFar.copyFrom(migrant);
+            _globals.foundBestIteration = _globals.iteration;
+            _globals.trailMax = 1.0 / (_globals.rho * _globals.bestSoFar.getCost());
+            _globals.trailMin = _globals.trailMax / (2.0 * _globals.graph.getNodes().size());
+            onBestRouteFound();
+        }
     }
 
+    /**
+     * Lowest cost ant, ties go to the lowest index so the result does not depend on construction order.
+     */
     public Ant findBestAnt() {
         Ant bestAnt = _globals.ants[0];
         for(int i = 1; i < _globals.numberAnts; i++) {
@@ -136,6 +249,11 @@ public class PathSolver {
         return bestAnt;
     }
 
+    /**
+     * Evaporation, deposit and trail limits in two passes. The total information is kept up to date on
+     * the way and only recomputed for the edges whose trail actually changed, which late in a run leaves
+     * most edges pinned at trailMin untouched.
+     */
     private void pheromoneTrailUpdate() {
         pheromoneEvaporation();
         if(_globals.iteration % _globals.uGb == 0) {
@@ -145,85 +263,200 @@ public class PathSolver {
         } else {
             pheromoneUpdate(_globals.restartBestAnt);
         }
-        checkPheromoneTrails();
-        computeTotalInformation();
     }
 
     private void pheromoneEvaporation() {
-        for(Edge edge : _globals.graph.getEdges()) {
-            edge.setPheromone((1.0 - _globals.rho) * edge.getPheromone());
+        if(_globals.lazyEvaporation) {
+            _globals.evaporations++;
+            return;
+        }
+        double[] pheromone = _globals.pheromone;
+        double[] valueBeta = _globals.heuristic.getValueBeta();
+        for(int e = 0; e < pheromone.length; e++) {
+            double trail = checkPheromoneTrail((1.0 - _globals.rho) * pheromone[e]);
+            if(trail != pheromone[e]) {
+                pheromone[e] = trail;
+                _globals.total[e] = _globals.pheromonePower(trail) * valueBeta[e];
+            }
         }
     }
 
     private void pheromoneUpdate(Ant ant) {
-        double dTau = 1.0 / ant.getCost();
-        for(int i = 0; i < ant.getRoute().size() - 1; i++) {
-            int fromId = ant.getRoute().get(i).getId();
-            int toId = ant.getRoute().get(i + 1).getId();
-            _globals.graph.getEdge(fromId, toId).setPheromone(dTau);
+        double trail = checkPheromoneTrail(1.0 / ant.getCost());
+        int[] edges = ant.getEdges();
+        if(_globals.lazyEvaporation) {
+            for(int i = 0; i < ant.getLength() - 1; i++) {
+                _globals.pheromone[edges[i]] = trail;
+                _globals.touched[edges[i]] = _globals.evaporations;
+            }
+            return;
+        }
+        double total = _globals.pheromonePower(trail);
+        double[] valueBeta = _globals.heuristic.getValueBeta();
+        for(int i = 0; i < ant.getLength() - 1; i++) {
+            _globals.pheromone[edges[i]] = trail;
+            _globals.total[edges[i]] = total * valueBeta[edges[i]];
         }
     }
 
-    private void checkPheromoneTrails() {
-        for(Edge edge : _globals.graph.getEdges()) {
-            if(edge.getPheromone() < _globals.trailMin) {
-                edge.setPheromone(_globals.trailMin);
-            }
-            if(edge.getPheromone() > _globals.trailMax) {
-                edge.setPheromone(_globals.trailMax);
-            }
+    private double checkPheromoneTrail(double trail) {
+        if(trail < _globals.trailMin) {
+            trail = _globals.trailMin;
         }
+        if(trail > _globals.trailMax) {
+            trail = _globals.trailMax;
+        }
+        return trail;
     }
 
     private void searchControl() {
-        if(_globals.iteration % 100 == 0) {
+        if(_globals.iteration % _globals.branchCheckInterval == 0) {
             double branchFactor = calculateBranchingFactor();
             //System.out.println("Branch factor = " + branchFactor + " at iteration " + _globals.iteration);
             if(branchFactor < _globals.branchFactor && (_globals.iteration - _globals.restartFoundBestIteration) > 250) {
                 //System.out.println("Restarting System!");
-                _globals.restartBestAnt = new Ant(_globals);
+                _globals.restartBestAnt.reset();
                 initPheromoneTrails(_globals.trailMax);
                 computeTotalInformation();
                 _globals.restartFoundBestIteration = _globals.iteration;
+                metrics.onRestart();
             }
         }
     }
 
-    private double calculateBranchingFactor() {
-        double min, max, cutoff, avg = 0.0;
-        List<Double> numBranches = new ArrayList<>();
-        for(Node node : _globals.graph.getNodes()) {
-            if(!node.getEdges().isEmpty()) {
-                max = Double.MAX_VALUE * -1.0;
-                min = Double.MAX_VALUE;
-                for(Edge edges : node.getEdges()) {
-                    if(edges.getPheromone() > max) {
-                        max = edges.getPheromone();
-                    }
-                    if(edges.getPheromone() < min) {
-                        min = edges.getPheromone();
-                    }
-                }
-                cutoff = min + _globals.lambda * (max - min);
-                double count = 0.0;
-                for(Edge edges : node.getEdges()) {
-                    if(edges.getPheromone() > cutoff) {
-                        count += 1.0;
-                    }
+    /**
+     * Average lambda-branching factor over the nodes with edges. With branchSampleError set, the average is
+     * taken over as many uniformly drawn nodes as Hoeffding's bound asks for to be within that error, with
+     * probability 1 - BRANCH_SAMPLE_DELTA, when that is fewer nodes than the graph has.
+     */
+    double calculateBranchingFactor() {
+        if(branchingNodes == null) {
+            int[] offsets = _globals.compact.getOffsets();
+            branchingNodes = new int[_globals.compact.getNodesLength()];
+            int count = 0;
+            for(int node = 0; node < _globals.compact.getNodesLength(); node++) {
+                if(offsets[node] != offsets[node + 1]) {
+                    branchingNodes[count++] = node;
                 }
-                numBranches.add(count);
             }
+            branchingNodes = Arrays.copyOf(branchingNodes, count);
+            branchingTrails = new double[_globals.compact.getMaxDegree()];
         }
-        for(Double branch : numBranches) {
-            avg += branch;
+        double avg = 0.0;
+        int samples = branchSampleSize();
+        if(samples < branchingNodes.length) {
+            if(branchingRandom == null) {
+                branchingRandom = _globals.random.split();
+            }
+            for(int i = 0; i < samples; i++) {
+                avg += countBranches(branchingNodes[branchingRandom.nextInt(branchingNodes.length)]);
+            }
+        } else {
+            samples = branchingNodes.length;
+            for(int node : branchingNodes) {
+                avg += countBranches(node);
+            }
         }
-        return (avg / (numBranches.size() * 2.0));
+        return (avg / (samples * 2.0));
+    }
+
+    private int branchSampleSize() {
+        if(_globals.branchSampleError <= 0.0) {
+            return Integer.MAX_VALUE;
+        }
+        double range = _globals.compact.getMaxDegree() / 2.0;
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(range * range * Math.log(2.0 / BRANCH_SAMPLE_DELTA)
+                / (2.0 * _globals.branchSampleError * _globals.branchSampleError)));
+    }
+
+    /**
+     * Edges of the node whose trail is above min + lambda * (max - min), reading every trail once.
+     */
+    private double countBranches(int node) {
+        int first = _globals.compact.getOffsets()[node];
+        int degree = _globals.compact.getOffsets()[node + 1] - first;
+        double max = Double.MAX_VALUE * -1.0;
+        double min = Double.MAX_VALUE;
+        for(int i = 0; i < degree; i++) {
+            double pheromone = _globals.pheromone(first + i);
+            branchingTrails[i] = pheromone;
+            if(pheromone > max) {
+                max = pheromone;
+            }
+            if(pheromone < min) {
+                min = pheromone;
+            }
+        }
+        double cutoff = min + _globals.lambda * (max - min);
+        double count = 0.0;
+        for(int i = 0; i < degree; i++) {
+            if(branchingTrails[i] > cutoff) {
+                count += 1.0;
+            }
+        }
+        return count;
+    }
+
+    private void onBestRouteFound() {
+        metrics.setBestCost(getResultCost());
+        if(pathListener == null && asyncPathListener == null && solution == null) {
+            return;
+        }
+        Integer[] route = getResultRoute();
+        double cost = getResultCost();
+        if(pathListener != null) {
+            pathListener.onBestRouteFound(route, cost);
+        }
+        if(asyncPathListener != null || solution != null) {
+            Solution best = new Solution(route, cost);
+            if(asyncPathListener != null) {
+                asyncPathListener.offer(best);
+            }
+            if(solution != null) {
+                solution.offer(best);
+            }
+        }
+    }
+
+    /**
+     * Makes solve() return after the iteration in progress. Safe to call from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Runs setup() and solve() on the executor, returning at once. The handle holds the best route so far
+     * while the colony runs and completes with the final one.
+     */
+    public SolutionHandle solveAsync(Executor executor) {
+        SolutionHandle handle = getSolution();
+        executor.execute(() -> {
+            try {
+                setup();
+                solve();
+                handle.complete(new Solution(getResultRoute(), getResultCost()));
+            } catch (Throwable throwable) {
+                handle.completeExceptionally(throwable);
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Anytime handle on this colony, kept up to date from the moment it is first requested.
+     */
+    public synchronized SolutionHandle getSolution() {
+        if(solution == null) {
+            solution = new SolutionHandle();
+        }
+        return solution;
     }
 
     public Integer[] getResultRoute() {
-        Integer[] bestRoute = new Integer[_globals.bestSoFar.getRoute().size()];
-        for(int i = 0; i < _globals.bestSoFar.getRoute().size(); i++) {
-            bestRoute[i] = _globals.bestSoFar.getRoute().get(i).getId();
+        Integer[] bestRoute = new Integer[_globals.bestSoFar.getLength()];
+        for(int i = 0; i < _globals.bestSoFar.getLength(); i++) {
+            bestRoute[i] = _globals.compact.getId(_globals.bestSoFar.getPath()[i]);
         }
         return bestRoute;
     }
@@ -232,6 +465,79 @@ public class PathSolver {
         return _globals.bestSoFar.getCost();
     }
 
+    /**
+     * Seeds the colony's random source, must be called before setup() for a reproducible run.
+     */
+    public void setSeed(long seed) {
+        _globals.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Builds the ants of each iteration in parallel on the given pool; pheromone updates stay sequential.
+     */
+    public void setParallelAnts(ForkJoinPool pool) {
+        _globals.parallelAnts = pool != null;
+        if(pool != null) {
+            _globals.antPool = pool;
+        }
+    }
+
+    /**
+     * Starts the search from a known route (external node ids, source to target) when it beats the nearest neighbour tour.
+     */
+    public void setInitialRoute(int[] route) {
+        int[] path = new int[route.length];
+        for(int i = 0; i < route.length; i++) {
+            path[i] = _globals.compact.indexOf(route[i]);
+        }
+        _globals.initialRoute = path;
+    }
+
+    /**
+     * Evaporates lazily: each iteration only writes the deposit path and trails/totals are worked out on read.
+     * Must be called before setup().
+     */
+    public void setLazyEvaporation(boolean lazyEvaporation) {
+        _globals.lazyEvaporation = lazyEvaporation;
+    }
+
+    /**
+     * Checks for stagnation every checkInterval iterations, estimating the branching factor within sampleError
+     * (95% confidence) from a sample of nodes, or exactly when sampleError is 0.
+     */
+    public void setBranchingCheck(int checkInterval, double sampleError) {
+        if(checkInterval < 1) {
+            throw new RuntimeException("Branching check interval must be positive");
+        }
+        _globals.branchCheckInterval = checkInterval;
+        _globals.branchSampleError = sampleError;
+    }
+
+    /**
+     * Records ant cost statistics every interval iterations, 0 for none, keeping the last capacity records in
+     * memory and writing them to file (may be null) in the background. Must be called before setup().
+     */
+    public void setStatistics(int interval, int capacity, String file, StatisticsFormat format) {
+        if(interval < 0) {
+            throw new RuntimeException("Statistics interval must not be negative");
+        }
+        _globals.statisticsInterval = interval;
+        _globals.statisticsCapacity = capacity;
+        _globals.statisticsFile = file;
+        _globals.statisticsFormat = format;
+    }
+
+    Globals getGlobals() {
+        return _globals;
+    }
+
+    /**
+     * Counters and phase timings of this colony, always collected. See SolverMetrics.register() to publish them over JMX.
+     */
+    public SolverMetrics getMetrics() {
+        return metrics;
+    }
+
     public Statistics getStatistics() {
         return statistics;
     }
@@ -240,10 +546,22 @@ public class PathSolver {
         return pathListener;
     }
 
+    /**
+     * The listener is called on the solver thread, so it holds up the colony for as long as it runs.
+     */
     public void setPathListener(PathListener pathListener) {
         this.pathListener = pathListener;
     }
 
+    /**
+     * Delivers improvements on a separate thread. A slow listener never holds up the colony; it gets the latest
+     * route when it is ready for the next one.
+     */
+    public void setAsyncPathListener(PathListener pathListener) {
+        this.asyncPathListener = pathListener == null ? null :
+                new LatestValueDispatcher<>(best -> pathListener.onBestRouteFound(best.getRoute(), best.getCost()));
+    }
+
     public boolean isFinished() {
         return finished;
     }
@@ -0,0 +1,71 @@
+package schmitt.mmas.aco.path;
+
+import schmitt.mmas.graph.CompactGraph;
+
+/**
+ * Heuristic information towards one target node, computed once per graph and target on the first
+ * compute() call. It is read-only afterwards, so every colony heading to the same target can share it.
+ */
+public class TargetHeuristic {
+
+    private CompactGraph compact;
+
+    private int target;
+
+    private double beta;
+
+    // by node index
+    private double[] distanceToTarget;
+
+    // by edge id
+    private double[] value;
+
+    // by edge id, value ^ beta
+    private double[] valueBeta;
+
+    public TargetHeuristic(CompactGraph compact, int target, double beta) {
+        this.compact = compact;
+        this.target = target;
+        this.beta = beta;
+    }
+
+    public synchronized void compute() {
+        if(value != null) {
+            return;
+        }
+        double[] x = compact.getX();
+        double[] y = compact.getY();
+        distanceToTarget = new double[compact.getNodesLength()];
+        for(int node = 0; node < distanceToTarget.length; node++) {
+            distanceToTarget[node] = Globals.calculateDistanceInMeters(x[node], y[node], x[target], y[target]);
+        }
+        int[] targets = compact.getTargets();
+        double[] distance = compact.getDistance();
+        value = new double[compact.getEdgesLength()];
+        valueBeta = new double[compact.getEdgesLength()];
+        for(int e = 0; e < value.length; e++) {
+            value[e] = 1.0 / (distance[e] + distanceToTarget[targets[e]]);
+            valueBeta[e] = Math.pow(value[e], beta);
+        }
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    public double[] getDistanceToTarget() {
+        return distanceToTarget;
+    }
+
+    public double[] getValue() {
+        return value;
+    }
+
+    public double[] getValueBeta() {
+        return valueBeta;
+    }
+}
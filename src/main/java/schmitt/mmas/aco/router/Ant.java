@@ -2,150 +2,282 @@ package schmitt.mmas.aco.router;
 
 import schmitt.mmas.graph.Node;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import java.util.Stack;
 
 public class Ant {
 
     private Globals _globals;
 
-    private Stack<Node> tour;
+    // target indexes of the tour, starting and, once complete, ending at the source
+    private int[] tour;
 
-    private Set<Node> visited;
+    // number of targets in the tour
+    private int length;
+
+    // one bit per target index
+    private long[] visited;
+
+    // 0..size - 1, the targets scanned when no candidate is left
+    private int[] targets;
 
     private double cost;
 
+    private SplittableRandom random;
+
+    private double[] probabilities;
+
     public Ant(Globals globals) {
-        tour = new Stack<>();
-        visited = new HashSet<>();
         _globals = globals;
+        tour = new int[0];
+        visited = new long[0];
+        targets = new int[0];
+        probabilities = new double[0];
+        random = globals.random.split();
     }
 
     public void nnTour() {
-        tour = new Stack<>();
-        visited = new HashSet<>();
-        tour.push(_globals.sourceNode);
-        visited.add(_globals.sourceNode);
-        Node currentNode = _globals.sourceNode;
-        while(tour.size() != _globals.targetNodes.size()) {
-            Node nextNode = selectNextNearNode(currentNode);
-            if(nextNode == null) {
+        int current = startTour();
+        while(length != _globals.routeManager.getTargetCount()) {
+            int next = selectNextNearNode(current);
+            if(next < 0) {
                 cost = Double.MAX_VALUE;
-                break;
-            } else {
-                tour.push(nextNode);
-                visited.add(nextNode);
-                currentNode = nextNode;
+                return;
             }
+            visit(next);
+            current = next;
         }
-        tour.push(_globals.sourceNode);
-        computeCost();
+        closeTour(current);
     }
 
-    private Node selectNextNearNode(Node currentNode) {
-        Route[] routes = _globals.routeManager.getRoutes(currentNode.getId()).toArray(new Route[] {});
-        Route selectedRoute = null;
-        for(int i = 0; i < routes.length; i++) {
-            if(!visited.contains(routes[i].getTargetNode()) &&
-                    (selectedRoute == null || routes[i].getBestCost() < selectedRoute.getBestCost())) {
-               selectedRoute = routes[i];
+    private int selectNextNearNode(int current) {
+        double[] costs = _globals.routeManager.getCosts();
+        int selected = -1;
+        for(int to = 0; to < _globals.routeManager.size(); to++) {
+            int slot = _globals.routeManager.slot(current, to);
+            if(!isVisited(to) && _globals.routeManager.getLeg(current, to) != null &&
+                    (selected < 0 || costs[slot] < costs[_globals.routeManager.slot(current, selected)])) {
+                selected = to;
             }
         }
-        return selectedRoute.getTargetNode();
+        return selected;
     }
 
     public void heuristicTour() {
-        tour = new Stack<>();
-        visited = new HashSet<>();
-        tour.push(_globals.sourceNode);
-        visited.add(_globals.sourceNode);
-        Node currentNode = _globals.sourceNode;
-        while(tour.size() != _globals.targetNodes.size()) {
-            Node nextNode = selectNextHeuristicNode(currentNode);
-            if(nextNode == null) {
+        int current = startTour();
+        while(length != _globals.routeManager.getTargetCount()) {
+            int next = selectNextHeuristicNode(current);
+            if(next < 0) {
                 cost = Double.MAX_VALUE;
                 return;
-            } else {
-                tour.push(nextNode);
-                visited.add(nextNode);
-                currentNode = nextNode;
             }
+            visit(next);
+            current = next;
         }
-        tour.push(_globals.sourceNode);
+        closeTour(current);
+    }
+
+    private void closeTour(int current) {
+        if(_globals.routeManager.getLeg(current, _globals.sourceIndex) == null) {
+            cost = Double.MAX_VALUE;
+            return;
+        }
+        tour[length++] = _globals.sourceIndex;
         computeCost();
     }
 
-    private Node selectNextHeuristicNode(Node currentNode) {
-        Route[] routes = _globals.routeManager.getRoutes(currentNode.getId()).toArray(new Route[] {});
-        Double[] probabilities = new Double[routes.length];
-        Double cumulativeSum = 0.0;
-        for(int i = 0; i < routes.length; i++) {
-            if(visited.contains(routes[i].getTargetNode())) {
+    private int startTour() {
+        int size = _globals.routeManager.size();
+        if(targets.length < size) {
+            tour = new int[size + 1];
+            visited = new long[(size + 63) >> 6];
+            targets = new int[size];
+            for(int i = 0; i < size; i++) {
+                targets[i] = i;
+            }
+            probabilities = new double[size];
+        }
+        Arrays.fill(visited, 0L);
+        length = 0;
+        visit(_globals.sourceIndex);
+        return _globals.sourceIndex;
+    }
+
+    private void visit(int node) {
+        tour[length++] = node;
+        visited[node >> 6] |= 1L << node;
+    }
+
+    private boolean isVisited(int node) {
+        return (visited[node >> 6] & (1L << node)) != 0;
+    }
+
+    private int selectNextHeuristicNode(int current) {
+        int[] candidates = _globals.routeManager.getCandidates(current);
+        int next = candidates == null ? -1 : selectNextNode(current, candidates, candidates.length);
+        if(next < 0) {
+            next = selectNextNode(current, targets, _globals.routeManager.size());
+        }
+        return next;
+    }
+
+    private int selectNextNode(int current, int[] nodes, int count) {
+        double cumulativeSum = 0.0;
+        int best = -1;
+        for(int i = 0; i < count; i++) {
+            if(isVisited(nodes[i]) || _globals.routeManager.getLeg(current, nodes[i]) == null) {
                 probabilities[i] = 0.0;
             } else {
-                probabilities[i] = routes[i].getTotal();
+                probabilities[i] = _globals.total[_globals.routeManager.slot(current, nodes[i])];
                 cumulativeSum += probabilities[i];
+                if(best < 0 || probabilities[i] > probabilities[best]) {
+                    best = i;
+                }
             }
         }
         if(cumulativeSum <= 0.0) {
-            return null;
+            return -1;
+        } else if(_globals.q0 > 0.0 && random.nextDouble() < _globals.q0) {
+            return nodes[best];
         } else {
-            double rand = Math.random() * cumulativeSum;
+            double rand = random.nextDouble() * cumulativeSum;
             int i = 0;
             double partialSum = probabilities[i];
             while (partialSum <= rand) {
                 i++;
+                if(i == count) {
+                    return -1;
+                }
                 partialSum += probabilities[i];
             }
-            if(i == routes.length) {
-                return null;
-            } else {
-                return routes[i].getTargetNode();
-            }
+            return nodes[i];
         }
     }
 
     public void computeCost() {
+        double[] costs = _globals.routeManager.getCosts();
         cost = 0.0;
-        for(int i = 0; i < tour.size() - 1; i++) {
-            cost += _globals.routeManager.getRoute(tour.get(i).getId(), tour.get(i + 1).getId()).getBestCost();
+        for(int i = 0; i < length - 1; i++) {
+            cost += costs[_globals.routeManager.slot(tour[i], tour[i + 1])];
         }
     }
 
-    public Stack<Node> getTour() {
-        return tour;
+    /**
+     * Recomputes the cost of a complete tour when one of its legs changed in the route manager's last update.
+     *
+     * @return whether the cost was recomputed
+     */
+    public boolean rescore() {
+        if(cost == Double.MAX_VALUE) {
+            return false;
+        }
+        for(int i = 0; i < length - 1; i++) {
+            if(_globals.routeManager.isChanged(_globals.routeManager.slot(tour[i], tour[i + 1]))) {
+                computeCost();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inserts the target into a complete tour where it adds the least cost, as of the route manager's last update.
+     */
+    public void insert(int target) {
+        if(cost == Double.MAX_VALUE || length < 2) {
+            return;
+        }
+        double[] costs = _globals.routeManager.getCosts();
+        int best = -1;
+        double bestIncrease = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < length - 1; i++) {
+            double increase = costs[_globals.routeManager.slot(tour[i], target)]
+                    + costs[_globals.routeManager.slot(target, tour[i + 1])]
+                    - costs[_globals.routeManager.slot(tour[i], tour[i + 1])];
+            if(increase < bestIncrease) {
+                best = i;
+                bestIncrease = increase;
+            }
+        }
+        if(best < 0) {
+            cost = Double.MAX_VALUE;
+            return;
+        }
+        if(tour.length == length) {
+            tour = Arrays.copyOf(tour, length * 2);
+        }
+        System.arraycopy(tour, best + 1, tour, best + 2, length - best - 1);
+        tour[best + 1] = target;
+        length++;
+        computeCost();
     }
 
-    public Set<Node> getVisited() {
-        return visited;
+    /**
+     * Takes the target out of a complete tour, joining its neighbours.
+     */
+    public void remove(int target) {
+        if(cost == Double.MAX_VALUE) {
+            return;
+        }
+        for(int i = 1; i < length - 1; i++) {
+            if(tour[i] == target) {
+                System.arraycopy(tour, i + 1, tour, i, length - i - 1);
+                length--;
+                if(_globals.routeManager.getLeg(tour[i - 1], tour[i]) == null) {
+                    cost = Double.MAX_VALUE;
+                } else {
+                    computeCost();
+                }
+                return;
+            }
+        }
     }
 
-    public double getCost() {
-        return cost;
+    /**
+     * Copies the tour and cost of another ant into this one, reusing this ant's buffers.
+     */
+    public void copyFrom(Ant ant) {
+        if(tour.length < ant.length) {
+            tour = new int[ant.tour.length];
+        }
+        System.arraycopy(ant.tour, 0, tour, 0, ant.length);
+        length = ant.length;
+        cost = ant.cost;
+    }
+
+    /**
+     * Empties the tour, as a freshly allocated ant.
+     */
+    public void reset() {
+        length = 0;
+        cost = 0.0;
     }
 
-    public void setTour(Stack<Node> tour) {
-        this.tour = tour;
+    /**
+     * The tour as target nodes, built on every call.
+     */
+    public Stack<Node> getTour() {
+        Stack<Node> nodes = new Stack<>();
+        for(int i = 0; i < length; i++) {
+            nodes.push(_globals.routeManager.getNode(tour[i]));
+        }
+        return nodes;
     }
 
-    public void setVisited(Set<Node> visited) {
-        this.visited = visited;
+    public int[] getPath() {
+        return tour;
     }
 
-    public void setCost(double cost) {
-        this.cost = cost;
+    public int getLength() {
+        return length;
     }
 
-    public Ant clone() {
-        Ant ant = new Ant(_globals);
-        ant.setCost(this.getCost());
-        for(int i = 0; i < getTour().size(); i++) {
-            ant.getTour().push(getTour().get(i));
-        }
-        for(Node node : getVisited()) {
-            ant.getVisited().add(node);
-        }
-        return ant;
+    public double getCost() {
+        return cost;
+    }
+
+    public void setCost(double cost) {
+        this.cost = cost;
     }
 }
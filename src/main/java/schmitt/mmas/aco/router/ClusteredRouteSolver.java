@@ -0,0 +1,427 @@
+package schmitt.mmas.aco.router;
+
+import schmitt.mmas.aco.path.Globals;
+import schmitt.mmas.graph.CompactGraph;
+import schmitt.mmas.graph.DistanceMatrix;
+import schmitt.mmas.graph.Graph;
+import schmitt.mmas.graph.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Cluster-first mode for large target sets. The targets other than the source are grouped by k-means on their x/y
+ * coordinates, and each group gets its own RouteSolver, run in parallel, so the legs drop from k(k-1) to about
+ * k(k-1)/c. The clusters are then visited in nearest neighbour order of their centroids, starting from the source.
+ *
+ * The routers running at the same time share numberWorkers leg threads between them, so the whole solver uses
+ * about as many leg threads as a single RouteSolver would, at least one per running cluster.
+ *
+ * Each cluster's closed tour is opened before one of its targets. Which one is chosen for all clusters at once by
+ * a shortest path over the rotations, with the seams between consecutive clusters priced by a distance matrix over
+ * just those two clusters.
+ */
+public class ClusteredRouteSolver {
+
+    private static final int KMEANS_ITERATIONS = 100;
+
+    private Graph graph;
+
+    private Node sourceNode;
+
+    private List<Node> targetNodes;
+
+    private int numberClusters;
+
+    private int parallelism;
+
+    private int numberWorkers;
+
+    // seconds, null for the routers' default
+    private Double maxTime;
+
+    private SplittableRandom random;
+
+    private LegMode legMode;
+
+    private LocalSearchMode localSearchMode;
+
+    // targets of each cluster, in visiting order of the clusters
+    private List<List<Node>> clusters;
+
+    // by cluster, null for a single target
+    private RouteSolver[] solvers;
+
+    private Integer[] resultRoute;
+
+    private double resultCost;
+
+    public ClusteredRouteSolver(Graph graph, Node sourceNode, List<Node> targetNodes, int numberClusters) {
+        if(!targetNodes.contains(sourceNode)) {
+            throw new RuntimeException("TargetNodes must contains SourceNode");
+        }
+        if(numberClusters < 1) {
+            throw new RuntimeException("Number of clusters must be positive");
+        }
+        this.graph = graph;
+        this.sourceNode = sourceNode;
+        this.targetNodes = new ArrayList<>(targetNodes);
+        this.numberClusters = numberClusters;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.numberWorkers = Runtime.getRuntime().availableProcessors();
+        this.random = new SplittableRandom();
+        this.legMode = LegMode.ACO;
+        this.localSearchMode = LocalSearchMode.NONE;
+        this.resultCost = Double.MAX_VALUE;
+    }
+
+    /**
+     * Clusters the targets and builds a RouteSolver for each cluster.
+     */
+    public void setup() {
+        List<Node> nodes = new ArrayList<>();
+        for(Node node : targetNodes) {
+            if(node.getId() != sourceNode.getId()) {
+                nodes.add(node);
+            }
+        }
+        clusters = nodes.isEmpty() ? new ArrayList<>() : orderClusters(cluster(nodes, Math.min(numberClusters, nodes.size())));
+        solvers = new RouteSolver[clusters.size()];
+        for(int c = 0; c < clusters.size(); c++) {
+            List<Node> cluster = clusters.get(c);
+            if(cluster.size() > 1) {
+                solvers[c] = new RouteSolver(graph, cluster.get(0), cluster);
+                solvers[c].setSeed(random.nextLong());
+                solvers[c].setLegMode(legMode);
+                solvers[c].setLocalSearch(localSearchMode);
+                if(maxTime != null) {
+                    solvers[c].setMaxTime(maxTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves the clusters, parallelism at a time, and stitches their tours.
+     */
+    public void solve() {
+        int running = 0;
+        for(RouteSolver solver : solvers) {
+            if(solver != null) {
+                running++;
+            }
+        }
+        running = Math.max(1, Math.min(parallelism, running));
+        ExecutorService executor = Executors.newFixedThreadPool(running);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for(RouteSolver solver : solvers) {
+                if(solver != null) {
+                    solver.setNumberWorkers(Math.max(1, numberWorkers / running));
+                    runs.add(executor.submit(() -> {
+                        solver.setup();
+                        solver.solve();
+                    }));
+                }
+            }
+            for(Future<?> run : runs) {
+                run.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdown();
+        }
+        stitch();
+    }
+
+    /**
+     * k-means++ seeding followed by Lloyd iterations until no target changes cluster.
+     */
+    private List<List<Node>> cluster(List<Node> nodes, int k) {
+        int n = nodes.size();
+        double[][] centers = new double[k][];
+        double[] distance = new double[n];
+        Arrays.fill(distance, Double.MAX_VALUE);
+        Node first = nodes.get(random.nextInt(n));
+        centers[0] = new double[] {first.getX(), first.getY()};
+        for(int c = 1; c < k; c++) {
+            double sum = 0.0;
+            for(int i = 0; i < n; i++) {
+                distance[i] = Math.min(distance[i], squaredDistance(nodes.get(i), centers[c - 1]));
+                sum += distance[i];
+            }
+            double rand = random.nextDouble() * sum;
+            int chosen = 0;
+            for(double partialSum = distance[0]; partialSum <= rand && chosen < n - 1; partialSum += distance[++chosen]);
+            centers[c] = new double[] {nodes.get(chosen).getX(), nodes.get(chosen).getY()};
+        }
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        boolean changed = true;
+        for(int iteration = 0; changed && iteration < KMEANS_ITERATIONS; iteration++) {
+            changed = false;
+            for(int i = 0; i < n; i++) {
+                int nearest = 0;
+                for(int c = 1; c < k; c++) {
+                    if(squaredDistance(nodes.get(i), centers[c]) < squaredDistance(nodes.get(i), centers[nearest])) {
+                        nearest = c;
+                    }
+                }
+                if(assignment[i] != nearest) {
+                    assignment[i] = nearest;
+                    changed = true;
+                }
+            }
+            int[] counts = new int[k];
+            double[][] sums = new double[k][2];
+            for(int i = 0; i < n; i++) {
+                counts[assignment[i]]++;
+                sums[assignment[i]][0] += nodes.get(i).getX();
+                sums[assignment[i]][1] += nodes.get(i).getY();
+            }
+            for(int c = 0; c < k; c++) {
+                if(counts[c] > 0) {
+                    centers[c][0] = sums[c][0] / counts[c];
+                    centers[c][1] = sums[c][1] / counts[c];
+                }
+            }
+        }
+        List<List<Node>> clusters = new ArrayList<>();
+        for(int c = 0; c < k; c++) {
+            List<Node> cluster = new ArrayList<>();
+            for(int i = 0; i < n; i++) {
+                if(assignment[i] == c) {
+                    cluster.add(nodes.get(i));
+                }
+            }
+            if(!cluster.isEmpty()) {
+                clusters.add(cluster);
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Nearest neighbour order of the cluster centroids, starting from the source.
+     */
+    private List<List<Node>> orderClusters(List<List<Node>> clusters) {
+        List<double[]> centroids = new ArrayList<>();
+        for(List<Node> cluster : clusters) {
+            double[] centroid = new double[2];
+            for(Node node : cluster) {
+                centroid[0] += node.getX() / cluster.size();
+                centroid[1] += node.getY() / cluster.size();
+            }
+            centroids.add(centroid);
+        }
+        List<List<Node>> ordered = new ArrayList<>();
+        double[] current = {sourceNode.getX(), sourceNode.getY()};
+        while(!clusters.isEmpty()) {
+            int nearest = 0;
+            for(int c = 1; c < clusters.size(); c++) {
+                if(squaredDistance(centroids.get(c), current) < squaredDistance(centroids.get(nearest), current)) {
+                    nearest = c;
+                }
+            }
+            current = centroids.remove(nearest);
+            ordered.add(clusters.remove(nearest));
+        }
+        return ordered;
+    }
+
+    private static double squaredDistance(Node node, double[] point) {
+        return squaredDistance(new double[] {node.getX(), node.getY()}, point);
+    }
+
+    private static double squaredDistance(double[] a, double[] b) {
+        return (a[0] - b[0]) * (a[0] - b[0]) + (a[1] - b[1]) * (a[1] - b[1]);
+    }
+
+    /**
+     * Picks where each cluster's tour is opened with a shortest path over the rotations of consecutive clusters,
+     * the source being a one-target cluster at both ends, and builds the route.
+     */
+    private void stitch() {
+        int count = clusters.size();
+        // cycles[c]: targets of the cluster's tour, without the closing target
+        int[][] cycles = new int[count + 2][];
+        cycles[0] = new int[] {sourceNode.getId()};
+        cycles[count + 1] = new int[] {sourceNode.getId()};
+        double[] cycleCosts = new double[count + 2];
+        for(int c = 0; c < count; c++) {
+            cycles[c + 1] = cycle(c);
+            cycleCosts[c + 1] = cycleCost(c, cycles[c + 1]);
+        }
+        // seams[c]: matrix between cycles[c] (rows first) and cycles[c + 1]
+        DistanceMatrix[] seams = new DistanceMatrix[count + 1];
+        CompactGraph compact = graph.getCompact();
+        double[] edgeCosts = Globals.calculateEdgeCosts(compact);
+        for(int c = 0; c <= count; c++) {
+            int[] ids = Arrays.copyOf(cycles[c], cycles[c].length + cycles[c + 1].length);
+            System.arraycopy(cycles[c + 1], 0, ids, cycles[c].length, cycles[c + 1].length);
+            seams[c] = DistanceMatrix.compute(compact, ids, edgeCosts);
+        }
+        // best[c][r]: cheapest cost up to cluster c entered at rotation r, including the cluster's own legs
+        double[][] best = new double[count + 2][];
+        int[][] from = new int[count + 2][];
+        best[0] = new double[] {0.0};
+        for(int c = 1; c <= count + 1; c++) {
+            int[] cycle = cycles[c];
+            int[] previous = cycles[c - 1];
+            best[c] = new double[cycle.length];
+            from[c] = new int[cycle.length];
+            for(int r = 0; r < cycle.length; r++) {
+                best[c][r] = Double.MAX_VALUE;
+                double inside = cycle.length == 1 ? 0.0 : cycleCosts[c] - leg(c - 1, cycle[(r + cycle.length - 1) % cycle.length], cycle[r]).getBestCost();
+                for(int p = 0; p < previous.length; p++) {
+                    // entered at p, the previous cluster is left at the target before p
+                    int exit = (p + previous.length - 1) % previous.length;
+                    double seam = seams[c - 1].getCost(exit, previous.length + r);
+                    double cost = best[c - 1][p] + seam + inside;
+                    if(seam < Double.MAX_VALUE && cost < best[c][r]) {
+                        best[c][r] = cost;
+                        from[c][r] = p;
+                    }
+                }
+            }
+        }
+        if(best[count + 1][0] == Double.MAX_VALUE) {
+            throw new RuntimeException("Clusters can not be joined into one route");
+        }
+        int[] rotation = new int[count + 2];
+        for(int c = count + 1; c > 0; c--) {
+            rotation[c - 1] = from[c][rotation[c]];
+        }
+        List<Integer> route = new ArrayList<>();
+        route.add(sourceNode.getId());
+        for(int c = 0; c <= count; c++) {
+            int[] cycle = cycles[c];
+            int exit = (rotation[c] + cycle.length - 1) % cycle.length;
+            if(c > 0) {
+                for(int i = 0; i < cycle.length - 1; i++) {
+                    int a = cycle[(rotation[c] + i) % cycle.length];
+                    int b = cycle[(rotation[c] + i + 1) % cycle.length];
+                    append(route, leg(c - 1, a, b).getBestRoute());
+                }
+            }
+            append(route, seams[c].getPath(exit, cycle.length + rotation[c + 1]));
+        }
+        resultRoute = route.toArray(new Integer[] {});
+        resultCost = best[count + 1][0];
+    }
+
+    private int[] cycle(int cluster) {
+        if(solvers[cluster] == null) {
+            return new int[] {clusters.get(cluster).get(0).getId()};
+        }
+        Ant bestSoFar = solvers[cluster].getBestSoFar();
+        if(bestSoFar.getCost() == Double.MAX_VALUE) {
+            throw new RuntimeException("Cluster " + cluster + " has no complete tour");
+        }
+        int[] cycle = new int[bestSoFar.getLength() - 1];
+        for(int i = 0; i < cycle.length; i++) {
+            cycle[i] = solvers[cluster].getRouteManager().getNode(bestSoFar.getPath()[i]).getId();
+        }
+        return cycle;
+    }
+
+    /**
+     * Cost of the closed tour over the legs' final costs, which may be lower than the router last saw.
+     */
+    private double cycleCost(int cluster, int[] cycle) {
+        double cost = 0.0;
+        for(int i = 0; cycle.length > 1 && i < cycle.length; i++) {
+            cost += leg(cluster, cycle[i], cycle[(i + 1) % cycle.length]).getBestCost();
+        }
+        return cost;
+    }
+
+    private Route leg(int cluster, int from, int to) {
+        return solvers[cluster].getRouteManager().getRoute(from, to);
+    }
+
+    private static void append(List<Integer> route, Integer[] path) {
+        for(int i = 1; i < path.length; i++) {
+            route.add(path[i]);
+        }
+    }
+
+    private static void append(List<Integer> route, int[] path) {
+        for(int i = 1; i < path.length; i++) {
+            route.add(path[i]);
+        }
+    }
+
+    public Integer[] getResultRoute() {
+        return resultRoute;
+    }
+
+    public double getResultCost() {
+        return resultCost;
+    }
+
+    /**
+     * Targets of each cluster in visiting order, available after setup().
+     */
+    public List<List<Node>> getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Seeds the clustering and every cluster's router, must be called before setup().
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Number of cluster routers solved at the same time, the available processors by default.
+     */
+    public void setParallelism(int parallelism) {
+        if(parallelism < 1) {
+            throw new RuntimeException("Parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Leg threads shared by the cluster routers running at the same time, the available processors by default.
+     */
+    public void setNumberWorkers(int numberWorkers) {
+        if(numberWorkers < 1) {
+            throw new RuntimeException("Number of workers must be positive");
+        }
+        this.numberWorkers = numberWorkers;
+    }
+
+    /**
+     * Seconds every cluster's router runs once its legs are finished, must be called before setup().
+     */
+    public void setMaxTime(double maxTime) {
+        this.maxTime = maxTime;
+    }
+
+    /**
+     * Leg mode of every cluster's router, must be called before setup().
+     */
+    public void setLegMode(LegMode legMode) {
+        this.legMode = legMode;
+    }
+
+    /**
+     * Local search of every cluster's router, must be called before setup().
+     */
+    public void setLocalSearch(LocalSearchMode localSearchMode) {
+        this.localSearchMode = localSearchMode;
+    }
+}
@@ -2,23 +2,42 @@ package schmitt.mmas.aco.router;
 
 import schmitt.mmas.graph.Graph;
 import schmitt.mmas.graph.Node;
+import schmitt.mmas.utils.StatisticsFormat;
 import schmitt.mmas.utils.Timer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 public class Globals {
 
     public Timer timer;
 
+    // master random source, split per ant and used to seed every leg's colony
+    public SplittableRandom random;
+
     public Graph graph;
 
     public Node sourceNode;
 
+    // target index of sourceNode in the route manager
+    public int sourceIndex;
+
     public List<Node> targetNodes;
 
     public RouteManager routeManager;
 
+    // build the ants of an iteration concurrently on antPool
+    public boolean parallelAnts;
+
+    public ForkJoinPool antPool;
+
+    // pheromone and total information by leg slot, see RouteManager
+    public double[] pheromone;
+
+    public double[] total;
+
     public Ant[] ants;
 
     public Ant bestSoFar;
@@ -35,6 +54,9 @@ public class Globals {
 
     public double branchFactor;
 
+    // iterations between two stagnation checks
+    public int branchCheckInterval;
+
     public double maxTime; // In seconds
 
     public double lambda;
@@ -51,25 +73,83 @@ public class Globals {
 
     public int uGb;
 
+    // HEURISTIC(bestSoFar) ^ beta the leg totals were last computed with
+    public double heuristicBeta;
+
+    // number of cheapest legs an ant considers before scanning all legs
+    public int candidateListSize;
+
+    // iterations between two statistics records, 0 for none
+    public int statisticsInterval;
+
+    // records kept by the statistics recorder
+    public int statisticsCapacity;
+
+    // file the statistics are written to, may be null
+    public String statisticsFile;
+
+    public StatisticsFormat statisticsFormat;
+
+    // probability of taking the best candidate instead of sampling (ACS pseudo-random-proportional rule)
+    public double q0;
+
+    public LegMode legMode;
+
+    // results of earlier runs, may be null
+    public LegCache legCache;
+
+    // cached legs are taken as final instead of seeding their colony
+    public boolean legCacheExact;
+
+    public LocalSearchMode localSearchMode;
+
+    // size of the pool that sets up and solves the legs
+    public int numberWorkers;
+
     public Globals() {
         targetNodes = new ArrayList<>();
         routeManager = new RouteManager(this);
         timer = new Timer();
+        parallelAnts = false;
+        antPool = ForkJoinPool.commonPool();
+        random = new SplittableRandom();
         numberAnts = 30;
         alpha = 1.0;
         beta = 2.0;
         rho = 0.02;
         maxTime = 10.0;
         branchFactor = 1.0001;
+        branchCheckInterval = 100;
         lambda = 0.05;
         iteration = 0;
         restartFoundBestIteration = 0;
         foundBestIteration = 0;
         uGb = 25;
+        candidateListSize = 10;
+        statisticsInterval = 0;
+        statisticsCapacity = 1024;
+        statisticsFormat = StatisticsFormat.CSV;
+        q0 = 0.0;
+        legMode = LegMode.ACO;
+        localSearchMode = LocalSearchMode.NONE;
+        numberWorkers = Runtime.getRuntime().availableProcessors();
     }
 
     public double HEURISTIC(Ant ant) {
         return 1.0 / ant.getCost();
     }
 
+    /**
+     * trail ^ alpha, skipping Math.pow for the exponents where a shortcut gives the very same double.
+     */
+    public double pheromonePower(double trail) {
+        if(alpha == 1.0) {
+            return trail;
+        }
+        if(alpha == 2.0) {
+            return trail * trail;
+        }
+        return Math.pow(trail, alpha);
+    }
+
 }
@@ -0,0 +1,182 @@
+package schmitt.mmas.aco.router;
+
+import schmitt.mmas.graph.CompactGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of leg results shared by every router that opens the same directory. An entry is one memory-mapped
+ * file named after the graph's fingerprint and the leg's external ids, holding the best route found and its cost,
+ * so results are only reused on an identical graph.
+ *
+ * The directory is kept under maxBytes by evicting the least recently used entries, across graphs. Recency is
+ * the files' modification time, which reads refresh, so it carries over between runs. The index of entries and
+ * their sizes is only scanned when the cache is opened, so maxBytes bounds what this process wrote and saw at
+ * that point: several processes sharing a directory can together exceed it until one of them reopens the cache.
+ */
+public class LegCache {
+
+    private static final int MAGIC = 0x4c454731;
+
+    // magic, route length, cost
+    private static final int HEADER = 4 + 4 + 8;
+
+    private static final String SUFFIX = ".leg";
+
+    private File directory;
+
+    private long maxBytes;
+
+    private long bytes;
+
+    // file name -> file size, least recently used first
+    private LinkedHashMap<String, Long> entries;
+
+    public LegCache(String directory, long maxBytes) {
+        this.directory = new File(directory);
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        if(!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new RuntimeException("Could not create leg cache directory " + directory);
+        }
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if(files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for(File file : files) {
+                entries.put(file.getName(), file.length());
+                bytes += file.length();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * The cached best route of the leg as external node ids, or null.
+     */
+    public synchronized Entry get(CompactGraph graph, int from, int to) {
+        String name = name(graph, from, to);
+        if(entries.get(name) == null) {
+            return null;
+        }
+        File file = new File(directory, name);
+        try (RandomAccessFile access = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+            if(buffer.capacity() < HEADER || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a leg cache entry");
+            }
+            int[] route = new int[buffer.getInt()];
+            double cost = buffer.getDouble();
+            if(buffer.remaining() != route.length * 4) {
+                throw new IOException("Truncated leg cache entry");
+            }
+            buffer.asIntBuffer().get(route);
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(route, cost);
+        } catch (IOException e) {
+            e.printStackTrace();
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the leg's route unless the cache already holds one at least as cheap.
+     */
+    public synchronized void put(CompactGraph graph, int from, int to, Integer[] route, double cost) {
+        String name = name(graph, from, to);
+        Entry cached = entries.containsKey(name) ? get(graph, from, to) : null;
+        if(cached != null && cached.getCost() <= cost) {
+            return;
+        }
+        long size = HEADER + route.length * 4L;
+        File temporary = new File(directory, name + ".tmp");
+        try {
+            try (RandomAccessFile access = new RandomAccessFile(temporary, "rw")) {
+                access.setLength(size);
+                MappedByteBuffer buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(MAGIC).putInt(route.length).putDouble(cost);
+                for(Integer id : route) {
+                    buffer.putInt(id);
+                }
+                buffer.force();
+            }
+            Files.move(temporary.toPath(), new File(directory, name).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporary.delete();
+            return;
+        }
+        Long previous = entries.put(name, size);
+        bytes += size - (previous == null ? 0 : previous);
+        evict();
+    }
+
+    /**
+     * Drops the leg's entry, e.g. one whose route does not fit the graph.
+     */
+    public synchronized void remove(CompactGraph graph, int from, int to) {
+        remove(name(graph, from, to));
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while(bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(directory, entry.getKey()).delete();
+            bytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if(size != null) {
+            bytes -= size;
+        }
+        new File(directory, name).delete();
+    }
+
+    private static String name(CompactGraph graph, int from, int to) {
+        return graph.getFingerprint().substring(0, 16) + "-" + from + "-" + to + SUFFIX;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public static final class Entry {
+
+        private final int[] route;
+
+        private final double cost;
+
+        private Entry(int[] route, double cost) {
+            this.route = route;
+            this.cost = cost;
+        }
+
+        public int[] getRoute() {
+            return route;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+    }
+}
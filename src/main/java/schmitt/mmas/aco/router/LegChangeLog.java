@@ -0,0 +1,83 @@
+package schmitt.mmas.aco.router;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free log of leg cost changes, written by the leg workers and read by the router thread only.
+ *
+ * Writers claim a sequence number and store an immutable entry stamped with it in the ring. The reader takes
+ * entries in sequence order and stops at the first one not published yet. When writers have lapped the reader,
+ * the stamp it finds is newer than expected and drain() reports an overflow, so the reader must resynchronize
+ * from the legs themselves.
+ */
+public class LegChangeLog {
+
+    private final AtomicReferenceArray<Change> ring;
+
+    private final int mask;
+
+    private final AtomicLong head;
+
+    // next sequence to read, reader thread only
+    private long tail;
+
+    public LegChangeLog(int capacity) {
+        if(Integer.bitCount(capacity) != 1) {
+            throw new RuntimeException("Change log capacity must be a power of two");
+        }
+        ring = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        head = new AtomicLong();
+    }
+
+    public void publish(int from, int to, double cost) {
+        long sequence = head.getAndIncrement();
+        ring.set((int) (sequence & mask), new Change(sequence, from, to, cost));
+    }
+
+    /**
+     * Hands every change published since the last call to the consumer, in order.
+     *
+     * @return false when changes were lost to an overflow; the log is then skipped to its head
+     */
+    public boolean drain(Consumer consumer) {
+        while(true) {
+            Change change = ring.get((int) (tail & mask));
+            if(change == null || change.sequence < tail) {
+                return true;
+            }
+            if(change.sequence > tail) {
+                tail = head.get();
+                return false;
+            }
+            consumer.accept(change.from, change.to, change.cost);
+            tail++;
+        }
+    }
+
+    public interface Consumer {
+
+        void accept(int from, int to, double cost);
+
+    }
+
+    private static final class Change {
+
+        private final long sequence;
+
+        // target indexes, which unlike slots survive a capacity change
+        private final int from;
+
+        private final int to;
+
+        private final double cost;
+
+        private Change(long sequence, int from, int to, double cost) {
+            this.sequence = sequence;
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+        }
+    }
+}
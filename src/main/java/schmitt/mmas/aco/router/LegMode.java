@@ -0,0 +1,17 @@
+package schmitt.mmas.aco.router;
+
+/**
+ * How the router's legs are solved.
+ */
+public enum LegMode {
+
+    // every leg is solved by its own MMAS path colony
+    ACO,
+
+    // every leg is the exact shortest path from the distance matrix, no colony runs
+    EXACT,
+
+    // the exact shortest path starts each leg colony as its best so far
+    EXACT_SEED
+
+}
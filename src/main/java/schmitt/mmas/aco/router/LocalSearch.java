@@ -0,0 +1,226 @@
+package schmitt.mmas.aco.router;
+
+import java.util.Arrays;
+
+/**
+ * 2-opt and Or-opt improvement of ant tours over the leg costs of the current iteration.
+ *
+ * Legs are asymmetric, so a 2-opt move also pays for walking the reversed segment backwards; prefix sums of
+ * the tour in both directions make every move an O(1) evaluation. Moves are only tried towards each node's
+ * candidate legs, and a node that yielded no move is skipped (don't-look bit) until a move touches it.
+ */
+public class LocalSearch {
+
+    private static final double EPSILON = 1e-9;
+
+    // longest segment an Or-opt move relocates
+    private static final int OR_OPT_LENGTH = 3;
+
+    private Globals _globals;
+
+    // leg costs by slot, infinite when there is no leg
+    private double[] cost;
+
+    private int capacity;
+
+    // target indexes of each target's candidate legs
+    private int[][] neighbors;
+
+    // scratch state of improve(), one per thread calling it
+    private ThreadLocal<Search> searches;
+
+    public LocalSearch(Globals globals) {
+        _globals = globals;
+        neighbors = new int[0][];
+        searches = ThreadLocal.withInitial(Search::new);
+    }
+
+    /**
+     * Picks up the leg costs and candidate lists of the current iteration. Must not run concurrently with improve().
+     */
+    public void refresh() {
+        RouteManager routeManager = _globals.routeManager;
+        cost = routeManager.getCosts();
+        capacity = routeManager.getCapacity();
+        if(neighbors.length != routeManager.size()) {
+            neighbors = new int[routeManager.size()][];
+        }
+        for(int i = 0; i < neighbors.length; i++) {
+            neighbors[i] = routeManager.getCandidates(i) == null ? new int[0] : routeManager.getCandidates(i);
+        }
+    }
+
+    private double cost(int from, int to) {
+        return cost[from * capacity + to];
+    }
+
+    /**
+     * Applies improving moves to the ant's tour until none is left and recomputes its cost. Incomplete tours are
+     * left alone. Safe to call for different ants concurrently.
+     */
+    public void improve(Ant ant) {
+        if(ant.getCost() == Double.MAX_VALUE) {
+            return;
+        }
+        Search search = searches.get();
+        search.reset(ant.getPath(), ant.getLength());
+        search.update();
+        boolean improved = true;
+        while(improved) {
+            improved = false;
+            for(int p = 0; p < search.length - 1; p++) {
+                int node = search.tour[p];
+                if(search.dontLook[node]) {
+                    continue;
+                }
+                if(search.twoOpt(p) || search.orOpt(p)) {
+                    search.update();
+                    improved = true;
+                } else {
+                    search.dontLook[node] = true;
+                }
+            }
+        }
+        ant.computeCost();
+    }
+
+    /**
+     * Scratch state of improve(), working on the ant's own tour and reused across calls on the same thread. The
+     * tour starts and ends at the source, which never moves.
+     */
+    private class Search {
+
+        private int[] tour;
+
+        private int length;
+
+        private int[] position;
+
+        private boolean[] dontLook;
+
+        // forward[p]: cost of the tour up to position p; backward[p]: cost of walking it back from p,
+        // leaving out missing reverse legs, which are counted in missing[p]
+        private double[] forward;
+
+        private double[] backward;
+
+        private int[] missing;
+
+        private Search() {
+            position = new int[0];
+            dontLook = new boolean[0];
+            forward = new double[0];
+            backward = new double[0];
+            missing = new int[0];
+        }
+
+        /**
+         * Points the search at a tour, growing the buffers only when the targets or the tour outgrew them.
+         * Targets missing from the tour keep position -1.
+         */
+        private void reset(int[] tour, int length) {
+            this.tour = tour;
+            this.length = length;
+            if(position.length < neighbors.length) {
+                position = new int[neighbors.length];
+                dontLook = new boolean[neighbors.length];
+            }
+            if(forward.length < length) {
+                forward = new double[length];
+                backward = new double[length];
+                missing = new int[length];
+            }
+            Arrays.fill(position, -1);
+            Arrays.fill(dontLook, false);
+        }
+
+        private void update() {
+            for(int p = length - 1; p >= 0; p--) {
+                position[tour[p]] = p;
+            }
+            for(int p = 1; p < length; p++) {
+                forward[p] = forward[p - 1] + cost(tour[p - 1], tour[p]);
+                double back = cost(tour[p], tour[p - 1]);
+                backward[p] = backward[p - 1] + (Double.isInfinite(back) ? 0.0 : back);
+                missing[p] = missing[p - 1] + (Double.isInfinite(back) ? 1 : 0);
+            }
+        }
+
+        /**
+         * Replaces a->b and c->d by a->c and b->d, reversing b..c, for every candidate c of a after b.
+         */
+        private boolean twoOpt(int p) {
+            int a = tour[p];
+            int b = tour[p + 1];
+            for(int c : neighbors[a]) {
+                int j = position[c];
+                if(j <= p + 1 || j >= length - 1 || missing[j] != missing[p + 1]) {
+                    continue;
+                }
+                int d = tour[j + 1];
+                double delta = cost(a, c) + cost(b, d) - cost(a, b) - cost(c, d)
+                        + (backward[j] - backward[p + 1]) - (forward[j] - forward[p + 1]);
+                if(delta < -EPSILON) {
+                    for(int i = p + 1, k = j; i < k; i++, k--) {
+                        int node = tour[i];
+                        tour[i] = tour[k];
+                        tour[k] = node;
+                    }
+                    look(a, b, c, d);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves the segment s..e of 1 to OR_OPT_LENGTH nodes following a in between prev->q, for every
+         * candidate q of e, keeping its direction.
+         */
+        private boolean orOpt(int p) {
+            int a = tour[p];
+            for(int size = 1; size <= OR_OPT_LENGTH && p + size < length - 1; size++) {
+                int s = tour[p + 1];
+                int e = tour[p + size];
+                int next = tour[p + size + 1];
+                double removed = cost(a, next) - cost(a, s) - cost(e, next);
+                if(Double.isInfinite(removed)) {
+                    continue;
+                }
+                for(int q : neighbors[e]) {
+                    int qPosition = q == tour[0] ? length - 1 : position[q];
+                    if(qPosition < 1 || (qPosition > p && qPosition <= p + size + 1)) {
+                        continue;
+                    }
+                    int prev = tour[qPosition - 1];
+                    double delta = removed + cost(prev, s) + cost(e, q) - cost(prev, q);
+                    if(delta < -EPSILON) {
+                        move(p + 1, size, qPosition);
+                        look(a, s, e, next);
+                        look(prev, q, s, e);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void move(int from, int size, int to) {
+            int[] segment = Arrays.copyOfRange(tour, from, from + size);
+            if(to > from) {
+                System.arraycopy(tour, from + size, tour, from, to - from - size);
+                System.arraycopy(segment, 0, tour, to - size, size);
+            } else {
+                System.arraycopy(tour, to, tour, to + size, from - to);
+                System.arraycopy(segment, 0, tour, to, size);
+            }
+        }
+
+        private void look(int a, int b, int c, int d) {
+            dontLook[a] = false;
+            dontLook[b] = false;
+            dontLook[c] = false;
+            dontLook[d] = false;
+        }
+    }
+}
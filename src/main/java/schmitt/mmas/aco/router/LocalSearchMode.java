@@ -0,0 +1,17 @@
+package schmitt.mmas.aco.router;
+
+/**
+ * Which ant tours the router improves with local search before updating its statistics.
+ */
+public enum LocalSearchMode {
+
+    // tours are taken as the ants built them
+    NONE,
+
+    // only the best tour of each iteration is improved
+    ITERATION_BEST,
+
+    // every ant's tour is improved
+    ALL
+
+}
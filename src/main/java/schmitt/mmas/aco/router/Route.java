@@ -2,10 +2,12 @@ package schmitt.mmas.aco.router;
 
 import schmitt.mmas.aco.path.PathListener;
 import schmitt.mmas.aco.path.PathSolver;
+import schmitt.mmas.aco.path.TargetHeuristic;
 import schmitt.mmas.graph.Graph;
 import schmitt.mmas.graph.Node;
+import schmitt.mmas.metrics.SolverMetrics;
 
-public class Route extends Thread implements PathListener {
+public class Route implements Runnable, PathListener {
 
     private Graph graph;
 
@@ -13,69 +15,92 @@ public class Route extends Thread implements PathListener {
 
     private Node targetNode;
 
+    private RouteManager routeManager;
+
     private PathSolver pathSolver;
 
-    private Integer[] bestRoute;
+    // replaced as a whole, so the router thread always reads a route with its own cost
+    private volatile Best best;
 
-    private Double bestCost;
+    // solved outside the colony, see setExactResult
+    private boolean exact;
 
-    private double pheromone;
+    // target indexes of the leg's ends in the route manager
+    private int fromIndex;
 
-    private double total;
+    private int toIndex;
 
-    public Route(Graph graph, Node sourceNode, Node targetNode) {
+    public Route(Graph graph, Node sourceNode, Node targetNode, TargetHeuristic heuristic, RouteManager routeManager) {
         this.graph = graph;
+        this.routeManager = routeManager;
         this.sourceNode = sourceNode;
         this.targetNode = targetNode;
-        pathSolver = new PathSolver(graph, graph.getNode(sourceNode.getId()), graph.getNode(targetNode.getId()));
+        pathSolver = new PathSolver(graph, graph.getNode(sourceNode.getId()), graph.getNode(targetNode.getId()), heuristic);
         pathSolver.setPathListener(this);
     }
 
+    public void setSeed(long seed) {
+        pathSolver.setSeed(seed);
+    }
+
     public void setup() {
         pathSolver.setup();
     }
 
+    public void setInitialRoute(int[] route) {
+        pathSolver.setInitialRoute(route);
+    }
+
+    /**
+     * Fixes this leg to an already known route, its colony will not run.
+     */
+    public void setExactResult(int[] route, double cost) {
+        Integer[] bestRoute = new Integer[route.length];
+        for(int i = 0; i < route.length; i++) {
+            bestRoute[i] = route[i];
+        }
+        this.best = new Best(bestRoute, cost);
+        this.exact = true;
+        routeManager.onRouteImproved(this);
+    }
+
     @Override
     public void run() {
-        pathSolver.solve();
+        if(!exact) {
+            pathSolver.solve();
+        }
     }
 
     @Override
     public void onBestRouteFound(Integer[] route, Double cost) {
-        this.bestRoute = route;
-        this.bestCost = cost;
+        this.best = new Best(route, cost);
+        routeManager.onRouteImproved(this);
     }
 
     public Integer[] getBestRoute() {
-        return bestRoute;
-    }
-
-    public void setBestRoute(Integer[] bestRoute) {
-        this.bestRoute = bestRoute;
+        Best best = this.best;
+        return best == null ? null : best.route;
     }
 
+    /**
+     * Cost of the best route, infinite while there is none.
+     */
     public double getBestCost() {
-        return bestCost;
-    }
-
-    public void setBestCost(double bestCost) {
-        this.bestCost = bestCost;
+        Best best = this.best;
+        return best == null ? Double.POSITIVE_INFINITY : best.cost;
     }
 
-    public double getPheromone() {
-        return pheromone;
+    void setIndexes(int fromIndex, int toIndex) {
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
     }
 
-    public void setPheromone(double pheromone) {
-        this.pheromone = pheromone;
+    public int getFromIndex() {
+        return fromIndex;
     }
 
-    public double getTotal() {
-        return total;
-    }
-
-    public void setTotal(double total) {
-        this.total = total;
+    public int getToIndex() {
+        return toIndex;
     }
 
     public Node getSourceNode() {
@@ -94,7 +119,30 @@ public class Route extends Thread implements PathListener {
         this.targetNode = targetNode;
     }
 
+    /**
+     * Stops the leg's colony at its next iteration.
+     */
+    public void cancel() {
+        pathSolver.stop();
+    }
+
+    public SolverMetrics getMetrics() {
+        return pathSolver.getMetrics();
+    }
+
     public boolean finished() {
-        return pathSolver.isFinished();
+        return exact || pathSolver.isFinished();
+    }
+
+    private static final class Best {
+
+        private final Integer[] route;
+
+        private final double cost;
+
+        private Best(Integer[] route, double cost) {
+            this.route = route;
+            this.cost = cost;
+        }
     }
 }
@@ -1,61 +1,417 @@
 package schmitt.mmas.aco.router;
 
-import schmitt.mmas.graph.Graph;
+import schmitt.mmas.aco.path.TargetHeuristic;
+import schmitt.mmas.graph.CompactGraph;
+import schmitt.mmas.graph.DistanceMatrix;
 import schmitt.mmas.graph.Node;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
+/**
+ * The router's legs. Targets are numbered 0..size-1 in the order they are added, and every per-leg value lives in a
+ * flat array at slot from * capacity + to, where capacity is the row stride (at least size). A removed target keeps
+ * its index, without legs, so an index never changes meaning while leg workers may still publish to it.
+ *
+ * Leg workers publish improvements to a change log; the leg costs seen by the router only change when the router
+ * thread calls update(), so they stay fixed during an iteration.
+ */
 public class RouteManager {
 
+    private static final int CHANGE_LOG_CAPACITY = 1 << 12;
+
     private Globals _globals;
 
     private Set<Route> routes;
 
-    private Map<Integer, Set<Route>> routesIndex;
+    // target id -> target index
+    private Map<Integer, Integer> indexes;
+
+    // by target index
+    private List<Node> nodes;
+
+    // targets not removed
+    private int targetCount;
+
+    private int capacity;
+
+    // by slot, null where there is no leg
+    private Route[] legs;
+
+    // by slot, best cost of the leg, infinite until the leg has a route
+    private double[] costs;
+
+    private LegChangeLog changes;
+
+    private LegChangeLog.Consumer applyChange;
+
+    // whether the update() in progress changed a cost
+    private boolean updated;
+
+    // number of update() calls that changed a cost
+    private long version;
+
+    // by slot, version in which the cost last changed
+    private long[] changedAt;
+
+    private Map<Integer, TargetHeuristic> heuristics;
+
+    // target indexes of the candidateListSize cheapest legs leaving each target
+    private int[][] candidates;
 
-    private Map<String, Route> routesMapIndex;
+    // by target index, the candidate list is out of date
+    private boolean[] staleCandidates;
+
+    // scratch row of buildCandidateList
+    private int[] candidateOrder;
 
     public RouteManager(Globals globals) {
         super();
         _globals = globals;
-        routes = new HashSet<>();
-        routesIndex = new HashMap<>();
-        routesMapIndex = new HashMap<>();
+        routes = new LinkedHashSet<>();
+        indexes = new HashMap<>();
+        nodes = new ArrayList<>();
+        heuristics = new HashMap<>();
+        changes = new LegChangeLog(CHANGE_LOG_CAPACITY);
+        candidateOrder = new int[0];
+        applyChange = (from, to, cost) -> updated |= setCost(from, to, cost);
+        grow(4);
+    }
+
+    /**
+     * Registers a target, returning its index. Adding targets may grow the capacity, which moves every slot.
+     */
+    public int addTarget(Node node) {
+        Integer index = indexes.get(node.getId());
+        if(index == null) {
+            index = nodes.size();
+            if(index == capacity) {
+                grow(capacity * 2);
+            }
+            indexes.put(node.getId(), index);
+            nodes.add(node);
+            targetCount++;
+        }
+        return index;
+    }
+
+    /**
+     * Removes the target and stops the colonies of its legs. Its index is not reused.
+     */
+    public void removeTarget(int id) {
+        int index = indexOf(id);
+        if(index < 0) {
+            return;
+        }
+        for(Route route : new ArrayList<>(routes)) {
+            if(route.getFromIndex() == index || route.getToIndex() == index) {
+                removeRoute(route);
+            }
+        }
+        indexes.remove(id);
+        targetCount--;
+    }
+
+    private void grow(int newCapacity) {
+        Route[] newLegs = new Route[newCapacity * newCapacity];
+        double[] newCosts = new double[newCapacity * newCapacity];
+        long[] newChangedAt = new long[newCapacity * newCapacity];
+        Arrays.fill(newCosts, Double.POSITIVE_INFINITY);
+        for(int from = 0; from < nodes.size(); from++) {
+            System.arraycopy(legs, from * capacity, newLegs, from * newCapacity, nodes.size());
+            System.arraycopy(costs, from * capacity, newCosts, from * newCapacity, nodes.size());
+            System.arraycopy(changedAt, from * capacity, newChangedAt, from * newCapacity, nodes.size());
+        }
+        legs = newLegs;
+        costs = newCosts;
+        changedAt = newChangedAt;
+        candidates = Arrays.copyOf(candidates == null ? new int[0][] : candidates, newCapacity);
+        staleCandidates = Arrays.copyOf(staleCandidates == null ? new boolean[0] : staleCandidates, newCapacity);
+        capacity = newCapacity;
     }
 
     public void addRoute(int from, int to) {
-        String key = from + "->" + to;
-        if(!routesMapIndex.containsKey(key)) {
-            Graph graph = _globals.graph.clone();
-            Route route = new Route(graph, _globals.graph.getNode(from), _globals.graph.getNode(to));
+        int fromIndex = addTarget(_globals.graph.getNode(from));
+        int toIndex = addTarget(_globals.graph.getNode(to));
+        if(legs[fromIndex * capacity + toIndex] == null) {
+            Route route = new Route(_globals.graph, _globals.graph.getNode(from), _globals.graph.getNode(to), getHeuristic(to), this);
+            route.setIndexes(fromIndex, toIndex);
             routes.add(route);
-            if(!routesIndex.containsKey(from)) {
-                routesIndex.put(from, new HashSet<>());
+            legs[fromIndex * capacity + toIndex] = route;
+            staleCandidates[fromIndex] = true;
+        }
+    }
+
+    private TargetHeuristic getHeuristic(int to) {
+        TargetHeuristic heuristic = heuristics.get(to);
+        if(heuristic == null) {
+            heuristic = new TargetHeuristic(_globals.graph.getCompact(), _globals.graph.getNode(to).getIndex(), schmitt.mmas.aco.path.Globals.DEFAULT_BETA);
+            heuristics.put(to, heuristic);
+        }
+        return heuristic;
+    }
+
+    /**
+     * Solves the legs exactly with a many-to-many Dijkstra between the current targets over the ants' edge costs.
+     * The exact paths either become the legs' final results or the starting best so far of their colonies.
+     *
+     * @return the legs whose target is unreachable
+     */
+    public List<Route> applyDistanceMatrix(Collection<Route> routes, boolean exact) {
+        CompactGraph compact = _globals.graph.getCompact();
+        int[] ids = new int[targetCount];
+        // target index -> matrix row
+        int[] rows = new int[nodes.size()];
+        int count = 0;
+        for(int i = 0; i < nodes.size(); i++) {
+            if(indexOf(nodes.get(i).getId()) == i) {
+                rows[i] = count;
+                ids[count++] = nodes.get(i).getId();
+            }
+        }
+        DistanceMatrix matrix = DistanceMatrix.compute(compact, ids, schmitt.mmas.aco.path.Globals.calculateEdgeCosts(compact));
+        List<Route> unreachable = new ArrayList<>();
+        for(Route route : routes) {
+            if(route.finished()) {
+                continue;
+            }
+            int i = rows[route.getFromIndex()];
+            int j = rows[route.getToIndex()];
+            if(matrix.getPath(i, j) == null) {
+                unreachable.add(route);
+            } else if(exact) {
+                route.setExactResult(matrix.getPath(i, j), matrix.getCost(i, j));
+            } else {
+                route.setInitialRoute(matrix.getPath(i, j));
+            }
+        }
+        return unreachable;
+    }
+
+    /**
+     * Looks the legs up in the cache. A cached route becomes the leg's final result when exact, and the starting
+     * best so far of its colony otherwise. Entries whose route is not a path of the leg in the graph are dropped.
+     */
+    public void applyLegCache(Collection<Route> routes, LegCache cache, boolean exact) {
+        CompactGraph compact = _globals.graph.getCompact();
+        for(Route route : routes) {
+            int from = route.getSourceNode().getId();
+            int to = route.getTargetNode().getId();
+            LegCache.Entry entry = cache.get(compact, from, to);
+            if(entry == null) {
+                continue;
+            }
+            if(!isPath(compact, entry.getRoute(), from, to)) {
+                cache.remove(compact, from, to);
+                continue;
+            }
+            if(exact) {
+                route.setExactResult(entry.getRoute(), entry.getCost());
+            } else {
+                route.setInitialRoute(entry.getRoute());
+            }
+        }
+    }
+
+    private static boolean isPath(CompactGraph compact, int[] route, int from, int to) {
+        if(route.length == 0 || route[0] != from || route[route.length - 1] != to) {
+            return false;
+        }
+        int previous = compact.indexOf(route[0]);
+        for(int i = 1; i < route.length; i++) {
+            int next = compact.indexOf(route[i]);
+            if(previous < 0 || next < 0 || compact.edgeIndex(previous, next) < 0) {
+                return false;
+            }
+            previous = next;
+        }
+        return true;
+    }
+
+    /**
+     * Stores the best route of every solved leg in the cache.
+     */
+    public void storeLegs(LegCache cache) {
+        CompactGraph compact = _globals.graph.getCompact();
+        for(Route route : routes) {
+            if(route.getBestRoute() != null) {
+                cache.put(compact, route.getSourceNode().getId(), route.getTargetNode().getId(), route.getBestRoute(), route.getBestCost());
             }
-            routesIndex.get(from).add(route);
-            routesMapIndex.put(key, route);
         }
     }
 
     public void removeRoute(int from, int to) {
         Route route = getRoute(from, to);
+        if(route != null) {
+            removeRoute(route);
+        }
+    }
+
+    private void removeRoute(Route route) {
+        route.cancel();
         routes.remove(route);
-        routesIndex.get(from).remove(route);
-        routesMapIndex.remove(from + "->" + to);
+        legs[slot(route.getFromIndex(), route.getToIndex())] = null;
+        costs[slot(route.getFromIndex(), route.getToIndex())] = Double.POSITIVE_INFINITY;
+        staleCandidates[route.getFromIndex()] = true;
     }
 
-    public Set<Route> getRoutes() {
-        return routes;
+    /**
+     * Called on the worker thread of the leg.
+     */
+    void onRouteImproved(Route route) {
+        changes.publish(route.getFromIndex(), route.getToIndex(), route.getBestCost());
+    }
+
+    /**
+     * Applies the leg improvements published since the last call. Router thread only.
+     *
+     * @return whether any leg cost changed, which makes them the legs isChanged() reports
+     */
+    public boolean update() {
+        updated = false;
+        if(!changes.drain(applyChange)) {
+            for(Route route : routes) {
+                updated |= setCost(route.getFromIndex(), route.getToIndex(), route.getBestCost());
+            }
+        }
+        if(updated) {
+            version++;
+        }
+        return updated;
+    }
+
+    private boolean setCost(int from, int to, double cost) {
+        int slot = slot(from, to);
+        if(legs[slot] == null || costs[slot] == cost) {
+            return false;
+        }
+        costs[slot] = cost;
+        changedAt[slot] = version + 1;
+        staleCandidates[from] = true;
+        return true;
+    }
+
+    /**
+     * Whether the leg's cost changed in the last update() that changed anything.
+     */
+    public boolean isChanged(int slot) {
+        return version > 0 && changedAt[slot] == version;
+    }
+
+    public long getVersion() {
+        return version;
     }
 
-    public Set<Route> getRoutes(int from) {
-        return routesIndex.get(from);
+    public void buildCandidateLists() {
+        update();
+        for(int from = 0; from < nodes.size(); from++) {
+            staleCandidates[from] = false;
+            buildCandidateList(from);
+        }
+    }
+
+    /**
+     * Rebuilds the candidate lists of the targets whose legs changed since the last call.
+     */
+    public void refreshCandidateLists() {
+        for(int from = 0; from < nodes.size(); from++) {
+            if(staleCandidates[from]) {
+                staleCandidates[from] = false;
+                buildCandidateList(from);
+            }
+        }
+    }
+
+    /**
+     * Insertion sorts the cheapest legs into the scratch row, then copies them into the target's list, reusing
+     * it when its length did not change. Ties keep the lower target index first.
+     */
+    private void buildCandidateList(int from) {
+        if(candidateOrder.length != _globals.candidateListSize) {
+            candidateOrder = new int[_globals.candidateListSize];
+        }
+        int count = 0;
+        for(int to = 0; to < nodes.size(); to++) {
+            if(legs[slot(from, to)] == null) {
+                continue;
+            }
+            double cost = costs[slot(from, to)];
+            if(count == candidateOrder.length && (count == 0 || !(cost < costs[slot(from, candidateOrder[count - 1])]))) {
+                continue;
+            }
+            int i = count < candidateOrder.length ? count++ : count - 1;
+            while(i > 0 && cost < costs[slot(from, candidateOrder[i - 1])]) {
+                candidateOrder[i] = candidateOrder[i - 1];
+                i--;
+            }
+            candidateOrder[i] = to;
+        }
+        int[] list = candidates[from];
+        if(list == null || list.length != count) {
+            list = new int[count];
+            candidates[from] = list;
+        }
+        System.arraycopy(candidateOrder, 0, list, 0, count);
+    }
+
+    /**
+     * Target indexes of the cheapest legs leaving the target, cheapest first.
+     */
+    public int[] getCandidates(int from) {
+        return candidates[from];
+    }
+
+    public int slot(int from, int to) {
+        return from * capacity + to;
+    }
+
+    /**
+     * Bound of the target indexes, removed targets included.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Targets a tour visits, removed targets excluded.
+     */
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int indexOf(int id) {
+        Integer index = indexes.get(id);
+        return index == null ? -1 : index;
+    }
+
+    public Node getNode(int index) {
+        return nodes.get(index);
+    }
+
+    /**
+     * The leg between two target indexes, or null.
+     */
+    public Route getLeg(int from, int to) {
+        return legs[slot(from, to)];
+    }
+
+    /**
+     * Best leg costs by slot as of the last update().
+     */
+    public double[] getCosts() {
+        return costs;
+    }
+
+    public Set<Route> getRoutes() {
+        return routes;
     }
 
     public Route getRoute(int from, int to) {
-        return routesMapIndex.get(from + "->" + to);
+        int fromIndex = indexOf(from);
+        int toIndex = indexOf(to);
+        return fromIndex < 0 || toIndex < 0 ? null : getLeg(fromIndex, toIndex);
     }
 }
@@ -2,11 +2,21 @@ package schmitt.mmas.aco.router;
 
 import schmitt.mmas.graph.Graph;
 import schmitt.mmas.graph.Node;
+import schmitt.mmas.metrics.Phase;
+import schmitt.mmas.metrics.SolverMetrics;
+import schmitt.mmas.utils.LatestValueDispatcher;
+import schmitt.mmas.utils.Solution;
+import schmitt.mmas.utils.SolutionHandle;
+import schmitt.mmas.utils.StatisticsFormat;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class RouteSolver {
 
@@ -14,16 +24,37 @@ public class RouteSolver {
 
     private RouteListener routeListener;
 
+    private LatestValueDispatcher<Solution> routeDispatcher;
+
+    private volatile SolutionHandle solution;
+
     private Statistics statistics;
 
+    private SolverMetrics metrics;
+
+    private LocalSearch localSearch;
+
+    // targets added or removed since the last iteration, applied by the router thread
+    private ConcurrentLinkedQueue<TargetChange> targetChanges;
+
+    // setup() has run, so target changes also update the ants and trails
+    private boolean started;
+
+    // runs the leg setups and colonies, numberWorkers threads for the router's whole run
+    private ExecutorService workers;
+
     public RouteSolver(Graph graph, Node sourceNode, List<Node> targetNodes) {
         _globals = new Globals();
         _globals.graph = graph;
         _globals.sourceNode = sourceNode;
-        _globals.targetNodes = targetNodes;
+        _globals.targetNodes = new ArrayList<>(targetNodes);
         if(!targetNodes.contains(sourceNode)) {
             throw new RuntimeException("TargetNodes must contains SourceNode");
         }
+        for(Node node : targetNodes) {
+            _globals.routeManager.addTarget(node);
+        }
+        _globals.sourceIndex = _globals.routeManager.indexOf(sourceNode.getId());
         for(int i = 0; i < targetNodes.size(); i++) {
             for(int j = i + 1; j < targetNodes.size(); j++) {
                 _globals.routeManager.addRoute(targetNodes.get(i).getId(), targetNodes.get(j).getId());
@@ -31,48 +62,140 @@ public class RouteSolver {
             }
         }
         statistics = new Statistics(_globals);
+        metrics = new SolverMetrics();
+        targetChanges = new ConcurrentLinkedQueue<>();
     }
 
     public void startWorkers() {
+        if(workers == null || workers.isShutdown()) {
+            workers = Executors.newFixedThreadPool(_globals.numberWorkers);
+        }
         _globals.timer.startTimer();
-        List<Route> invalidRoutes = new ArrayList<>();
-        for(Route route : _globals.routeManager.getRoutes()) {
-            try {
-                route.setup();
-            } catch (EmptyStackException e) {
-                invalidRoutes.add(route);
+        startLegs(new ArrayList<>(_globals.routeManager.getRoutes()));
+        System.out.println("Routes distances calculated in " + _globals.timer.elapsedTime());
+    }
+
+    /**
+     * Solves the legs from the cache or the distance matrix where possible, sets up the colonies of the others and
+     * queues them on the worker pool. Legs whose colony can not reach its target are removed.
+     */
+    private void startLegs(List<Route> legs) {
+        Set<Route> invalidRoutes = new HashSet<>();
+        if(_globals.legCache != null) {
+            _globals.routeManager.applyLegCache(legs, _globals.legCache, _globals.legCacheExact);
+        }
+        if(_globals.legMode != LegMode.ACO) {
+            invalidRoutes.addAll(_globals.routeManager.applyDistanceMatrix(legs, _globals.legMode == LegMode.EXACT));
+        }
+        List<Route> routes = new ArrayList<>();
+        for(Route route : legs) {
+            if(!route.finished() && !invalidRoutes.contains(route)) {
+                routes.add(route);
+            }
+        }
+        if(started) {
+            // the workers may all be busy with colonies, the few legs of an added target are set up here
+            for(Route route : routes) {
+                route.setSeed(_globals.random.nextLong());
+                try {
+                    route.setup();
+                } catch (EmptyStackException e) {
+                    invalidRoutes.add(route);
+                }
+            }
+        } else {
+            List<Future<?>> setups = new ArrayList<>();
+            for(Route route : routes) {
+                route.setSeed(_globals.random.nextLong());
+                setups.add(workers.submit(route::setup));
+            }
+            for(int i = 0; i < routes.size(); i++) {
+                try {
+                    setups.get(i).get();
+                } catch (ExecutionException e) {
+                    if(!(e.getCause() instanceof EmptyStackException)) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                    invalidRoutes.add(routes.get(i));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
             }
         }
         for(Route route : invalidRoutes) {
             _globals.routeManager.removeRoute(route.getSourceNode().getId(), route.getTargetNode().getId());
         }
+        for(Route route : routes) {
+            if(!route.finished() && !invalidRoutes.contains(route)) {
+                workers.execute(route);
+            }
+        }
+    }
+
+    /**
+     * Stops the leg colonies and the worker pool of a router that is not solved to the end, for instance one
+     * stepped with iterate(). solve() shuts the pool down by itself.
+     */
+    public void shutdown() {
         for(Route route : _globals.routeManager.getRoutes()) {
-            route.start();
+            route.cancel();
+        }
+        if(workers != null) {
+            workers.shutdownNow();
         }
-        System.out.println("Routes distances calculated in " + _globals.timer.elapsedTime());
     }
 
     public void setup() {
         _globals.timer.startTimer();
+        applyTargetChanges();
         startWorkers();
+        _globals.routeManager.buildCandidateLists();
+        if(_globals.localSearchMode != LocalSearchMode.NONE) {
+            localSearch = new LocalSearch(_globals);
+        }
         allocateAnts();
         restartMatrices();
+        statistics.start();
         initTry();
+        started = true;
         System.out.println("Configuration took: " + _globals.timer.elapsedTime());
     }
 
     public void solve() {
         _globals.timer.startTimer();
         while(!terminateCondition()) {
-            constructSolutions();
-            updateStatistics();
-            pheromoneTrailUpdate();
-            searchControl();
-            _globals.iteration++;
+            iterate();
+        }
+        statistics.close();
+        workers.shutdown();
+        if(_globals.legCache != null) {
+            _globals.routeManager.storeLegs(_globals.legCache);
         }
         System.out.println("Finished!");
     }
 
+    /**
+     * One iteration of the router. solve() runs them until the time is up; a router stepped by hand must be
+     * shutdown() once done.
+     */
+    public void iterate() {
+        long time = System.nanoTime();
+        constructSolutions();
+        time = metrics.time(Phase.CONSTRUCT_SOLUTIONS, time);
+        localSearch();
+        time = metrics.time(Phase.LOCAL_SEARCH, time);
+        updateStatistics();
+        statistics.calculateStatistics();
+        time = metrics.time(Phase.UPDATE_STATISTICS, time);
+        pheromoneTrailUpdate();
+        time = metrics.time(Phase.PHEROMONE_UPDATE, time);
+        searchControl();
+        metrics.time(Phase.SEARCH_CONTROL, time);
+        metrics.onIteration(_globals.numberAnts);
+        _globals.iteration++;
+    }
+
     private boolean terminateCondition() {
         return _globals.timer.elapsedTime() > _globals.maxTime * 1000 && allWorksFinished();
     }
@@ -97,10 +220,9 @@ public class RouteSolver {
     }
 
     private void restartMatrices() {
-        for(Route route : _globals.routeManager.getRoutes()) {
-            route.setPheromone(0.0);
-            route.setTotal(0.0);
-        }
+        int capacity = _globals.routeManager.getCapacity();
+        _globals.pheromone = new double[capacity * capacity];
+        _globals.total = new double[capacity * capacity];
     }
 
     private void initTry() {
@@ -109,41 +231,248 @@ public class RouteSolver {
         _globals.restartFoundBestIteration = 0;
         _globals.foundBestIteration = 0;
         _globals.ants[0].nnTour();
-        _globals.bestSoFar = _globals.ants[0].clone();
+        _globals.bestSoFar.copyFrom(_globals.ants[0]);
         _globals.trailMax = 1.0 / (_globals.rho * _globals.ants[0].getCost());
         _globals.trailMin = _globals.trailMax / (2.0 * _globals.graph.getNodes().size());
         initPheromoneTrails(_globals.trailMax);
         computeTotalInformation();
-        if(routeListener != null) {
-            routeListener.onBestTour(getResultRoute(), getResultCost());
-        }
+        onBestTour();
     }
 
     private void initPheromoneTrails(double trail) {
-        for(Route route : _globals.routeManager.getRoutes()) {
-            route.setPheromone(trail);
-            route.setTotal(trail);
-        }
+        Arrays.fill(_globals.pheromone, trail);
+        Arrays.fill(_globals.total, trail);
     }
 
     private void computeTotalInformation() {
-        for(Route route : _globals.routeManager.getRoutes()) {
-            double value = Math.pow(route.getPheromone(), _globals.alpha) * Math.pow(_globals.HEURISTIC(_globals.bestSoFar), _globals.beta);
-            route.setTotal(value);
+        _globals.heuristicBeta = Math.pow(_globals.HEURISTIC(_globals.bestSoFar), _globals.beta);
+        for(int slot = 0; slot < _globals.total.length; slot++) {
+            _globals.total[slot] = _globals.pheromonePower(_globals.pheromone[slot]) * _globals.heuristicBeta;
+        }
+    }
+
+    /**
+     * Adds a target to the route. Safe to call from any thread: on a running router only the legs between the new
+     * target and the current ones are created, and the best tours take it in at its cheapest insertion point at
+     * the start of the next iteration.
+     */
+    public void addTarget(Node node) {
+        targetChanges.add(new TargetChange(node, true));
+    }
+
+    /**
+     * Removes a target from the route, see addTarget(). The best tours join its neighbours and the colonies of its
+     * legs stop.
+     */
+    public void removeTarget(Node node) {
+        if(node.getId() == _globals.sourceNode.getId()) {
+            throw new RuntimeException("SourceNode can not be removed");
+        }
+        targetChanges.add(new TargetChange(node, false));
+    }
+
+    /**
+     * Router thread only.
+     *
+     * @return target indexes added to a running router, still to be inserted into the best tours
+     */
+    private List<Integer> applyTargetChanges() {
+        List<Integer> added = new ArrayList<>();
+        TargetChange change;
+        while((change = targetChanges.poll()) != null) {
+            int index = _globals.routeManager.indexOf(change.node.getId());
+            if(change.add && index < 0) {
+                index = addTargetLegs(change.node);
+                if(index >= 0 && started) {
+                    added.add(index);
+                }
+            } else if(!change.add && index >= 0) {
+                added.remove(Integer.valueOf(index));
+                removeTargetLegs(change.node, index);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @return the target index, or -1 when the target can not be reached
+     */
+    private int addTargetLegs(Node node) {
+        RouteManager routeManager = _globals.routeManager;
+        int capacity = routeManager.getCapacity();
+        int index = routeManager.addTarget(node);
+        for(Node target : _globals.targetNodes) {
+            routeManager.addRoute(node.getId(), target.getId());
+            routeManager.addRoute(target.getId(), node.getId());
+        }
+        _globals.targetNodes.add(node);
+        if(!started) {
+            return index;
+        }
+        if(routeManager.getCapacity() != capacity) {
+            growMatrices(capacity);
+        }
+        List<Route> legs = new ArrayList<>();
+        for(int other = 0; other < routeManager.size(); other++) {
+            initLegTrail(index, other);
+            initLegTrail(other, index);
+            if(routeManager.getLeg(index, other) != null) {
+                legs.add(routeManager.getLeg(index, other));
+            }
+            if(routeManager.getLeg(other, index) != null) {
+                legs.add(routeManager.getLeg(other, index));
+            }
+        }
+        startLegs(legs);
+        boolean reachable = false;
+        boolean reaching = false;
+        for(int other = 0; other < routeManager.size(); other++) {
+            reachable |= routeManager.getLeg(other, index) != null;
+            reaching |= routeManager.getLeg(index, other) != null;
+        }
+        if(!reachable || !reaching) {
+            System.out.println("Target " + node.getId() + " can not be reached, ignored");
+            removeTargetLegs(node, index);
+            return -1;
+        }
+        return index;
+    }
+
+    private void removeTargetLegs(Node node, int index) {
+        if(started) {
+            _globals.bestSoFar.remove(index);
+            _globals.restartBestAnt.remove(index);
+        }
+        _globals.routeManager.removeTarget(node.getId());
+        _globals.targetNodes.removeIf(target -> target.getId() == node.getId());
+        if(started) {
+            if(localSearch != null) {
+                _globals.routeManager.refreshCandidateLists();
+                localSearch.refresh();
+                localSearch.improve(_globals.bestSoFar);
+            }
+            onTargetsChanged();
+        }
+    }
+
+    /**
+     * Cheapest insertion of the added targets into the best tours, once their legs have a cost.
+     */
+    private void insertTargets(List<Integer> added) {
+        for(int index : added) {
+            _globals.bestSoFar.insert(index);
+            _globals.restartBestAnt.insert(index);
+        }
+        if(localSearch != null) {
+            _globals.routeManager.refreshCandidateLists();
+            localSearch.refresh();
+            localSearch.improve(_globals.bestSoFar);
+        }
+        onTargetsChanged();
+    }
+
+    /**
+     * The best tour now visits another set of targets, so its cost may have gone either way.
+     */
+    private void onTargetsChanged() {
+        _globals.foundBestIteration = _globals.iteration;
+        _globals.restartFoundBestIteration = _globals.iteration;
+        _globals.trailMax = 1.0 / (_globals.rho * _globals.bestSoFar.getCost());
+        _globals.trailMin = _globals.trailMax / (2.0 * _globals.graph.getNodes().size());
+        onBestTour(true);
+    }
+
+    /**
+     * Moves the trails to the route manager's new row stride, keeping every existing trail.
+     */
+    private void growMatrices(int oldCapacity) {
+        int capacity = _globals.routeManager.getCapacity();
+        double[] pheromone = new double[capacity * capacity];
+        double[] total = new double[capacity * capacity];
+        for(int from = 0; from < oldCapacity; from++) {
+            System.arraycopy(_globals.pheromone, from * oldCapacity, pheromone, from * capacity, oldCapacity);
+            System.arraycopy(_globals.total, from * oldCapacity, total, from * capacity, oldCapacity);
+        }
+        _globals.pheromone = pheromone;
+        _globals.total = total;
+    }
+
+    private void initLegTrail(int from, int to) {
+        int slot = _globals.routeManager.slot(from, to);
+        _globals.pheromone[slot] = _globals.trailMax;
+        _globals.total[slot] = _globals.pheromonePower(_globals.trailMax) * _globals.heuristicBeta;
+    }
+
+    /**
+     * Takes in the leg improvements published by the workers and re-scores the kept tours that use an improved leg.
+     */
+    private void applyLegChanges() {
+        if(!_globals.routeManager.update()) {
+            return;
+        }
+        _globals.restartBestAnt.rescore();
+        double cost = _globals.bestSoFar.getCost();
+        if(_globals.bestSoFar.rescore() && _globals.bestSoFar.getCost() < cost) {
+            String message = String.format("Best tour found %05d, at iteration %05d",
+                    (int) _globals.bestSoFar.getCost(),
+                    _globals.iteration);
+            System.out.println(message);
+            onBestTour();
+        }
+    }
+
+    /**
+     * Applies the queued target changes and leg improvements now, instead of at the start of the next iteration.
+     * Router thread only.
+     */
+    public void updateTargets() {
+        List<Integer> added = applyTargetChanges();
+        applyLegChanges();
+        if(!added.isEmpty()) {
+            insertTargets(added);
         }
     }
 
     private void constructSolutions() {
+        updateTargets();
+        _globals.routeManager.refreshCandidateLists();
+        if(_globals.parallelAnts) {
+            _globals.antPool.submit(() -> Arrays.stream(_globals.ants).parallel().forEach(Ant::heuristicTour)).join();
+        } else {
+            for(Ant ant : _globals.ants) {
+                ant.heuristicTour();
+            }
+        }
+        int deadEnds = 0;
         for(Ant ant : _globals.ants) {
-            ant.heuristicTour();
+            if(ant.getCost() == Double.MAX_VALUE) {
+                deadEnds++;
+            }
+        }
+        metrics.addDeadEnds(deadEnds);
+    }
+
+    private void localSearch() {
+        if(localSearch == null) {
+            return;
+        }
+        localSearch.refresh();
+        if(_globals.localSearchMode == LocalSearchMode.ITERATION_BEST) {
+            localSearch.improve(findBestAnt());
+        } else if(_globals.parallelAnts) {
+            _globals.antPool.submit(() -> Arrays.stream(_globals.ants).parallel().forEach(localSearch::improve)).join();
+        } else {
+            for(Ant ant : _globals.ants) {
+                localSearch.improve(ant);
+            }
         }
     }
 
     public void updateStatistics() {
         Ant iterationBestAnt = findBestAnt();
         if(iterationBestAnt.getCost() < _globals.bestSoFar.getCost()) {
-            _globals.bestSoFar = iterationBestAnt.clone();
-            _globals.restartBestAnt = iterationBestAnt.clone();
+            _globals.bestSoFar.copyFrom(iterationBestAnt);
+            _globals.restartBestAnt.copyFrom(iterationBestAnt);
             _globals.foundBestIteration = _globals.iteration;
             _globals.restartFoundBestIteration = _globals.iteration;
             _globals.trailMax = 1.0 / (_globals.rho * _globals.bestSoFar.getCost());
@@ -151,31 +480,24 @@ public class RouteSolver {
             String message = String.format("Best tour found %05d, at iteration %05d",
                     (int) _globals.bestSoFar.getCost(),
                     _globals.iteration);
-            message += "\n[" + _globals.bestSoFar.getTour().get(0).getId();
-            for(int i = 1; i < _globals.bestSoFar.getTour().size(); i++) {
-                message += "->" + _globals.bestSoFar.getTour().get(i).getId();
+            int[] tour = _globals.bestSoFar.getPath();
+            message += "\n[" + _globals.routeManager.getNode(tour[0]).getId();
+            for(int i = 1; i < _globals.bestSoFar.getLength(); i++) {
+                message += "->" + _globals.routeManager.getNode(tour[i]).getId();
             }
             message += "]";
             System.out.println(message);
-            this.routeListener.onBestTour(getResultRoute(), getResultCost());
+            onBestTour();
         }
         if(iterationBestAnt.getCost() < _globals.restartBestAnt.getCost()) {
-            _globals.restartBestAnt = iterationBestAnt.clone();
+            _globals.restartBestAnt.copyFrom(iterationBestAnt);
             _globals.restartFoundBestIteration = _globals.iteration;
         }
-        if(_globals.iteration % 500 == 0 && this.routeListener != null) {
-            double cost = _globals.bestSoFar.getCost();
-            _globals.bestSoFar.computeCost();
-            if(_globals.bestSoFar.getCost() < cost) {
-                String message = String.format("Best tour found %05d, at iteration %05d",
-                        (int) _globals.bestSoFar.getCost(),
-                        _globals.iteration);
-                System.out.println(message);
-                this.routeListener.onBestTour(getResultRoute(), getResultCost());
-            }
-        }
     }
 
+    /**
+     * Lowest cost ant, ties go to the lowest index so the result does not depend on construction order.
+     */
     public Ant findBestAnt() {
         Ant bestAnt = _globals.ants[0];
         for(int i = 1; i < _globals.numberAnts; i++) {
@@ -186,8 +508,15 @@ public class RouteSolver {
         return bestAnt;
     }
 
+    /**
+     * Evaporation, deposit and trail limits in two passes. A leg's total is only recomputed when its trail
+     * changed, unless a new best so far changed the heuristic factor shared by all legs.
+     */
     private void pheromoneTrailUpdate() {
-        pheromoneEvaporation();
+        double heuristicBeta = Math.pow(_globals.HEURISTIC(_globals.bestSoFar), _globals.beta);
+        boolean rescale = heuristicBeta != _globals.heuristicBeta;
+        _globals.heuristicBeta = heuristicBeta;
+        pheromoneEvaporation(rescale);
         if(_globals.iteration % _globals.uGb == 0) {
             pheromoneUpdate(findBestAnt());
         } else if (_globals.uGb == 1 && (_globals.iteration - _globals.restartFoundBestIteration) > 50) {
@@ -195,87 +524,142 @@ public class RouteSolver {
         } else {
             pheromoneUpdate(_globals.restartBestAnt);
         }
-        checkPheromoneTrails();
-        computeTotalInformation();
     }
 
-    private void pheromoneEvaporation() {
-        for(Route route : _globals.routeManager.getRoutes()) {
-            route.setPheromone((1.0 - _globals.rho) * route.getPheromone());
+    private void pheromoneEvaporation(boolean rescale) {
+        double[] pheromone = _globals.pheromone;
+        for(int slot = 0; slot < pheromone.length; slot++) {
+            double trail = checkPheromoneTrail((1.0 - _globals.rho) * pheromone[slot]);
+            if(rescale || trail != pheromone[slot]) {
+                pheromone[slot] = trail;
+                _globals.total[slot] = _globals.pheromonePower(trail) * _globals.heuristicBeta;
+            }
         }
     }
 
     private void pheromoneUpdate(Ant ant) {
-        double dTau = 1.0 / ant.getCost();
-        for(int i = 0; i < ant.getTour().size() - 1; i++) {
-            int fromId = ant.getTour().get(i).getId();
-            int toId = ant.getTour().get(i + 1).getId();
-            _globals.routeManager.getRoute(fromId, toId).setPheromone(dTau);
+        double trail = checkPheromoneTrail(1.0 / ant.getCost());
+        double total = _globals.pheromonePower(trail) * _globals.heuristicBeta;
+        int[] tour = ant.getPath();
+        for(int i = 0; i < ant.getLength() - 1; i++) {
+            int slot = _globals.routeManager.slot(tour[i], tour[i + 1]);
+            _globals.pheromone[slot] = trail;
+            _globals.total[slot] = total;
         }
     }
 
-    private void checkPheromoneTrails() {
-        for(Route route : _globals.routeManager.getRoutes()) {
-            if(route.getPheromone() < _globals.trailMin) {
-                route.setPheromone(_globals.trailMin);
-            }
-            if(route.getPheromone() > _globals.trailMax) {
-                route.setPheromone(_globals.trailMax);
-            }
+    private double checkPheromoneTrail(double trail) {
+        if(trail < _globals.trailMin) {
+            trail = _globals.trailMin;
+        }
+        if(trail > _globals.trailMax) {
+            trail = _globals.trailMax;
         }
+        return trail;
     }
 
     private void searchControl() {
-        if(_globals.iteration % 100 == 0) {
+        if(_globals.iteration % _globals.branchCheckInterval == 0) {
             double branchFactor = calculateBranchingFactor();
             System.out.println("Branch factor = " + branchFactor + " at iteration " + _globals.iteration);
             if(branchFactor < _globals.branchFactor && (_globals.iteration - _globals.restartFoundBestIteration) > 250) {
                 System.out.println("Restarting System!");
-                _globals.restartBestAnt = new Ant(_globals);
+                _globals.restartBestAnt.reset();
                 initPheromoneTrails(_globals.trailMax);
                 computeTotalInformation();
                 _globals.restartFoundBestIteration = _globals.iteration;
+                metrics.onRestart();
             }
         }
     }
 
-    private double calculateBranchingFactor() {
+    double calculateBranchingFactor() {
         double min, max, cutoff, avg = 0.0;
-        List<Double> numBranches = new ArrayList<>();
-        for(Node node : _globals.targetNodes) {
-            Set<Route> routes = _globals.routeManager.getRoutes(node.getId());
-            if(routes != null && !routes.isEmpty()) {
-                max = Double.MAX_VALUE * -1.0;
-                min = Double.MAX_VALUE;
-                for(Route route : routes) {
-                    if(route.getPheromone() > max) {
-                        max = route.getPheromone();
+        RouteManager routeManager = _globals.routeManager;
+        for(int from = 0; from < routeManager.size(); from++) {
+            max = Double.MAX_VALUE * -1.0;
+            min = Double.MAX_VALUE;
+            for(int to = 0; to < routeManager.size(); to++) {
+                if(routeManager.getLeg(from, to) != null) {
+                    double pheromone = _globals.pheromone[routeManager.slot(from, to)];
+                    if(pheromone > max) {
+                        max = pheromone;
                     }
-                    if(route.getPheromone() < min) {
-                        min = route.getPheromone();
+                    if(pheromone < min) {
+                        min = pheromone;
                     }
                 }
+            }
+            if(min != Double.MAX_VALUE) {
                 cutoff = min + _globals.lambda * (max - min);
                 double count = 0.0;
-                for(Route route : routes) {
-                    if(route.getPheromone() >= cutoff) {
+                for(int to = 0; to < routeManager.size(); to++) {
+                    if(routeManager.getLeg(from, to) != null && _globals.pheromone[routeManager.slot(from, to)] >= cutoff) {
                         count += 1.0;
                     }
                 }
-                numBranches.add(count);
+                avg += count;
             }
         }
-        for(Double branch : numBranches) {
-            avg += branch;
-        }
         return (avg / (_globals.targetNodes.size() * 2.0));
     }
 
+    private void onBestTour() {
+        onBestTour(false);
+    }
+
+    /**
+     * @param replace the tour visits another set of targets, so it replaces the handle's best whatever its cost
+     */
+    private void onBestTour(boolean replace) {
+        metrics.setBestCost(getResultCost());
+        if(routeDispatcher == null && solution == null) {
+            return;
+        }
+        Solution best = new Solution(getResultRoute(), getResultCost());
+        if(routeDispatcher != null) {
+            routeDispatcher.offer(best);
+        }
+        if(solution != null && replace) {
+            solution.replace(best);
+        } else if(solution != null) {
+            solution.offer(best);
+        }
+    }
+
+    /**
+     * Runs setup() and solve() on the executor, returning at once. The handle holds the best tour so far
+     * while the router runs and completes with the final one.
+     */
+    public SolutionHandle solveAsync(Executor executor) {
+        SolutionHandle handle = getSolution();
+        executor.execute(() -> {
+            try {
+                setup();
+                solve();
+                handle.complete(new Solution(getResultRoute(), getResultCost()));
+            } catch (Throwable throwable) {
+                handle.completeExceptionally(throwable);
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Anytime handle on this router, kept up to date from the moment it is first requested.
+     */
+    public synchronized SolutionHandle getSolution() {
+        if(solution == null) {
+            solution = new SolutionHandle();
+        }
+        return solution;
+    }
+
     public Integer[] getResultRoute() {
         List<Integer> nodes = new ArrayList<>();
-        Stack<Node> tour = _globals.bestSoFar.getTour();
-        for(int i = 0; i < tour.size() - 1; i++) {
-            for(int nodeId : _globals.routeManager.getRoute(tour.get(i).getId(), tour.get(i + 1).getId()).getBestRoute()) {
+        int[] tour = _globals.bestSoFar.getPath();
+        for(int i = 0; i < _globals.bestSoFar.getLength() - 1; i++) {
+            for(int nodeId : _globals.routeManager.getLeg(tour[i], tour[i + 1]).getBestRoute()) {
                 nodes.add(nodeId);
             }
         }
@@ -286,12 +670,113 @@ public class RouteSolver {
         return _globals.bestSoFar.getCost();
     }
 
+    /**
+     * Seeds the router and, through it, every leg colony. Must be called before setup().
+     */
+    public void setSeed(long seed) {
+        _globals.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Builds the router ants of each iteration in parallel on the given pool; pheromone updates stay sequential.
+     */
+    public void setParallelAnts(ForkJoinPool pool) {
+        _globals.parallelAnts = pool != null;
+        if(pool != null) {
+            _globals.antPool = pool;
+        }
+    }
+
+    /**
+     * Checks for stagnation every checkInterval iterations instead of every 100.
+     */
+    public void setBranchCheckInterval(int checkInterval) {
+        if(checkInterval < 1) {
+            throw new RuntimeException("Branching check interval must be positive");
+        }
+        _globals.branchCheckInterval = checkInterval;
+    }
+
+    /**
+     * Chooses how legs are solved, must be called before setup().
+     */
+    public void setLegMode(LegMode legMode) {
+        _globals.legMode = legMode;
+    }
+
+    /**
+     * Size of the pool that sets up and solves the legs, the available processors by default. Must be called
+     * before setup().
+     */
+    public void setNumberWorkers(int numberWorkers) {
+        if(numberWorkers < 1) {
+            throw new RuntimeException("Number of workers must be positive");
+        }
+        _globals.numberWorkers = numberWorkers;
+    }
+
+    /**
+     * Seconds solve() runs for once every leg is finished, 10 by default.
+     */
+    public void setMaxTime(double maxTime) {
+        _globals.maxTime = maxTime;
+    }
+
+    /**
+     * Reuses the leg results of earlier runs on the same graph and stores this run's when solve() ends. With exact
+     * set, cached legs skip their colony; otherwise their cached route starts the colony, which only matters in
+     * LegMode.ACO since the other modes start from the exact route. Must be called before setup().
+     */
+    public void setLegCache(LegCache legCache, boolean exact) {
+        _globals.legCache = legCache;
+        _globals.legCacheExact = exact;
+    }
+
+    /**
+     * Improves ant tours with 2-opt and Or-opt moves before each statistics update, must be called before setup().
+     */
+    public void setLocalSearch(LocalSearchMode localSearchMode) {
+        _globals.localSearchMode = localSearchMode;
+    }
+
+    /**
+     * Counters and phase timings of the router, always collected. The leg colonies keep their own, see
+     * Route.getMetrics().
+     */
+    public SolverMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Records ant cost statistics every interval iterations, 0 for none, keeping the last capacity records in
+     * memory and writing them to file (may be null) in the background. Must be called before setup().
+     */
+    public void setStatistics(int interval, int capacity, String file, StatisticsFormat format) {
+        if(interval < 0) {
+            throw new RuntimeException("Statistics interval must not be negative");
+        }
+        _globals.statisticsInterval = interval;
+        _globals.statisticsCapacity = capacity;
+        _globals.statisticsFile = file;
+        _globals.statisticsFormat = format;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
     public RouteListener getRouteListener() {
         return routeListener;
     }
 
+    /**
+     * The listener gets improving tours on a separate thread, only the latest one when it falls behind, so a
+     * slow listener never holds up the router.
+     */
     public void setRouteListener(RouteListener routeListener) {
         this.routeListener = routeListener;
+        this.routeDispatcher = routeListener == null ? null :
+                new LatestValueDispatcher<>(best -> routeListener.onBestTour(best.getRoute(), best.getCost()));
     }
 
     public Ant getBestSoFar() {
@@ -301,4 +786,27 @@ public class RouteSolver {
     public RouteManager getRouteManager() {
         return _globals.routeManager;
     }
+
+    /**
+     * Trail on the leg between two targets, 0 when there is no such leg.
+     */
+    public double getPheromone(Node from, Node to) {
+        Route route = _globals.routeManager.getRoute(from.getId(), to.getId());
+        if(route == null) {
+            return 0.0;
+        }
+        return _globals.pheromone[_globals.routeManager.slot(route.getFromIndex(), route.getToIndex())];
+    }
+
+    private static final class TargetChange {
+
+        private final Node node;
+
+        private final boolean add;
+
+        private TargetChange(Node node, boolean add) {
+            this.node = node;
+            this.add = add;
+        }
+    }
 }
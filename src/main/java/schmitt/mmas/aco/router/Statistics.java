@@ -1,50 +1,61 @@
 package schmitt.mmas.aco.router;
 
+import schmitt.mmas.utils.StatisticsRecorder;
 
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Mean, best and worst ant cost and the best so far every statisticsInterval iterations, see StatisticsRecorder.
+ */
 public class Statistics {
 
     private Globals _globals;
 
-    private Map<Integer, Double> iterationMean;
-
-    private Map<Integer, Double> iterationBest;
-
-    private Map<Integer, Double> iterationWorst;
-
-    private Map<Integer, Double> iterationBestSoFar;
+    // null while statistics are off
+    private StatisticsRecorder recorder;
 
     public Statistics(Globals globals) {
         this._globals = globals;
-        iterationMean = new HashMap<>();
-        iterationBest = new HashMap<>();
-        iterationWorst = new HashMap<>();
-        iterationBestSoFar = new HashMap<>();
+    }
+
+    /**
+     * Allocates the recorder and opens its output when statistics are on. Called from the solver's setup().
+     */
+    public void start() {
+        close();
+        recorder = _globals.statisticsInterval > 0 ?
+                new StatisticsRecorder(_globals.statisticsCapacity, _globals.statisticsFile, _globals.statisticsFormat) : null;
     }
 
     public void calculateStatistics() {
-        if(_globals.iteration % 10 == 0 && _globals.bestSoFar != null) {
-            double[] costs = new double[_globals.numberAnts];
+        if(recorder != null && _globals.iteration % _globals.statisticsInterval == 0 && _globals.bestSoFar != null) {
+            double sum = 0.0;
+            double best = Double.MAX_VALUE;
+            double worst = -Double.MAX_VALUE;
             for (int a = 0; a < _globals.numberAnts; a++) {
-                costs[a] = _globals.ants[a].getCost();
+                double cost = _globals.ants[a].getCost();
+                sum += cost;
+                best = Math.min(best, cost);
+                worst = Math.max(worst, cost);
             }
-            iterationMean.put(_globals.iteration, mean((costs)));
-            iterationBest.put(_globals.iteration, getBest(costs));
-            iterationWorst.put(_globals.iteration, getWorst(costs));
-            iterationBestSoFar.put(_globals.iteration, _globals.bestSoFar.getCost());
-            //Iteration, Mean, Best, Worst, Best so Far
-            String message = String.format("%05d, %05d, %05d, %05d, %05d,",
-                    _globals.iteration,
-                    (int) mean(costs),
-                    (int) getBest(costs),
-                    (int) getWorst(costs),
-                    (int) _globals.bestSoFar.getCost());
-            System.out.println(message);
+            recorder.record(_globals.iteration, sum / _globals.numberAnts, best, worst, _globals.bestSoFar.getCost());
         }
     }
 
+    /**
+     * Writes out the records still waiting for the output file and closes it.
+     */
+    public void close() {
+        if(recorder != null) {
+            recorder.close();
+        }
+    }
+
+    public StatisticsRecorder getRecorder() {
+        return recorder;
+    }
+
     public double mean(double[] values) {
         if(values.length == 0) return 0;
         double sum = values[0];
@@ -77,34 +88,18 @@ public class Statistics {
     }
 
     public Map<Integer, Double> getIterationMean() {
-        return iterationMean;
-    }
-
-    public void setIterationMean(Map<Integer, Double> iterationMean) {
-        this.iterationMean = iterationMean;
+        return recorder == null ? new HashMap<>() : recorder.getMeans();
     }
 
     public Map<Integer, Double> getIterationBest() {
-        return iterationBest;
-    }
-
-    public void setIterationBest(Map<Integer, Double> iterationBest) {
-        this.iterationBest = iterationBest;
+        return recorder == null ? new HashMap<>() : recorder.getBests();
     }
 
     public Map<Integer, Double> getIterationWorst() {
-        return iterationWorst;
-    }
-
-    public void setIterationWorst(Map<Integer, Double> iterationWorst) {
-        this.iterationWorst = iterationWorst;
+        return recorder == null ? new HashMap<>() : recorder.getWorsts();
     }
 
     public Map<Integer, Double> getIterationBestSoFar() {
-        return iterationBestSoFar;
-    }
-
-    public void setIterationBestSoFar(Map<Integer, Double> iterationBestSoFar) {
-        this.iterationBestSoFar = iterationBestSoFar;
+        return recorder == null ? new HashMap<>() : recorder.getBestsSoFar();
     }
 }
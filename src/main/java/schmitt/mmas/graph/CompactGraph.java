@@ -0,0 +1,215 @@
+package schmitt.mmas.graph;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Frozen compressed sparse-row (CSR) form of a {@link Graph}.
+ *
+ * Nodes are addressed by a dense internal index (0..n-1) and the outgoing edges of node i are the
+ * slots offsets[i]..offsets[i+1]-1 of the edge arrays, sorted by target index. The slot of an edge
+ * is its edge id, so per-edge solver state can be kept in plain arrays indexed by it.
+ */
+public final class CompactGraph {
+
+    // internal index -> external id
+    private final int[] ids;
+
+    // latitude, by internal index
+    private final double[] x;
+
+    // longitude, by internal index
+    private final double[] y;
+
+    private final int[] offsets;
+
+    private final int[] sources;
+
+    private final int[] targets;
+
+    private final double[] distance;
+
+    private final int maxDegree;
+
+    // external id -> internal index, either a direct table (dense ids) or sorted pairs (sparse ids)
+    private int minId;
+
+    private int[] indexTable;
+
+    private int[] sortedIds;
+
+    private int[] sortedIndexes;
+
+    private String fingerprint;
+
+    public CompactGraph(int[] ids, double[] x, double[] y, int[] offsets, int[] targets, double[] distance) {
+        this.ids = ids;
+        this.x = x;
+        this.y = y;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.distance = distance;
+        this.sources = new int[targets.length];
+        int maxDegree = 0;
+        for(int i = 0; i < ids.length; i++) {
+            for(int e = offsets[i]; e < offsets[i + 1]; e++) {
+                sources[e] = i;
+            }
+            maxDegree = Math.max(maxDegree, offsets[i + 1] - offsets[i]);
+        }
+        this.maxDegree = maxDegree;
+        buildIdIndex();
+    }
+
+    private void buildIdIndex() {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for(int id : ids) {
+            min = Math.min(min, id);
+            max = Math.max(max, id);
+        }
+        long range = ids.length == 0 ? 0 : (long) max - min + 1;
+        if(range <= 4L * ids.length + 16) {
+            minId = min;
+            indexTable = new int[(int) range];
+            Arrays.fill(indexTable, -1);
+            for(int i = 0; i < ids.length; i++) {
+                indexTable[ids[i] - min] = i;
+            }
+        } else {
+            Integer[] order = new Integer[ids.length];
+            for(int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
+            sortedIds = new int[ids.length];
+            sortedIndexes = new int[ids.length];
+            for(int i = 0; i < order.length; i++) {
+                sortedIds[i] = ids[order[i]];
+                sortedIndexes[i] = order[i];
+            }
+        }
+    }
+
+    /**
+     * @return internal index of the node with the given external id, or -1 if it does not exist
+     */
+    public int indexOf(int id) {
+        if(indexTable != null) {
+            long slot = (long) id - minId;
+            return slot < 0 || slot >= indexTable.length ? -1 : indexTable[(int) slot];
+        }
+        int pos = Arrays.binarySearch(sortedIds, id);
+        return pos < 0 ? -1 : sortedIndexes[pos];
+    }
+
+    /**
+     * @return edge id of from->to (internal indexes), or -1 if there is no such edge
+     */
+    public int edgeIndex(int from, int to) {
+        int low = offsets[from];
+        int high = offsets[from + 1] - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(targets[mid] < to) {
+                low = mid + 1;
+            } else if(targets[mid] > to) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * SHA-256 of the nodes, coordinates and edges, in hex. Two graphs with the same fingerprint give the same
+     * routes between the same ids.
+     */
+    public synchronized String getFingerprint() {
+        if(fingerprint == null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+            for(int i = 0; i < ids.length; i++) {
+                if(buffer.remaining() < 24) {
+                    update(digest, buffer);
+                }
+                buffer.putInt(ids[i]).putInt(offsets[i + 1] - offsets[i]).putDouble(x[i]).putDouble(y[i]);
+                for(int e = offsets[i]; e < offsets[i + 1]; e++) {
+                    if(buffer.remaining() < 12) {
+                        update(digest, buffer);
+                    }
+                    buffer.putInt(ids[targets[e]]).putDouble(distance[e]);
+                }
+            }
+            update(digest, buffer);
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            fingerprint = hex.toString();
+        }
+        return fingerprint;
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer buffer) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getNodesLength() {
+        return ids.length;
+    }
+
+    public int getEdgesLength() {
+        return targets.length;
+    }
+
+    public int getDegree(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    public int[] getIds() {
+        return ids;
+    }
+
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getSources() {
+        return sources;
+    }
+
+    public int[] getTargets() {
+        return targets;
+    }
+
+    public double[] getDistance() {
+        return distance;
+    }
+}
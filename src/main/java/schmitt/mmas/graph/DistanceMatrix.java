@@ -0,0 +1,130 @@
+package schmitt.mmas.graph;
+
+import java.util.Arrays;
+
+/**
+ * Exact many-to-many shortest paths between a set of nodes: one one-to-all Dijkstra per node, each
+ * stopped as soon as every node of the set is settled.
+ */
+public class DistanceMatrix {
+
+    // external ids of the nodes, in matrix order
+    private int[] ids;
+
+    // costs[i * k + j], Double.MAX_VALUE when j is unreachable from i
+    private double[] costs;
+
+    // paths[i * k + j] as external node ids, null when j is unreachable from i
+    private int[][] paths;
+
+    private DistanceMatrix(int[] ids) {
+        this.ids = ids;
+        this.costs = new double[ids.length * ids.length];
+        this.paths = new int[ids.length * ids.length][];
+        Arrays.fill(costs, Double.MAX_VALUE);
+    }
+
+    public static DistanceMatrix compute(CompactGraph graph, int[] ids) {
+        return compute(graph, ids, graph.getDistance());
+    }
+
+    /**
+     * @param ids external ids of the nodes
+     * @param weights non negative cost of each edge, by edge id
+     */
+    public static DistanceMatrix compute(CompactGraph graph, int[] ids, double[] weights) {
+        int k = ids.length;
+        int n = graph.getNodesLength();
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+        int[] sources = graph.getSources();
+        int[] nodes = new int[k];
+        boolean[] isTarget = new boolean[n];
+        int distinct = 0;
+        for(int i = 0; i < k; i++) {
+            nodes[i] = graph.indexOf(ids[i]);
+            if(nodes[i] < 0) {
+                throw new RuntimeException("Node " + ids[i] + " is not in the graph");
+            }
+            if(!isTarget[nodes[i]]) {
+                isTarget[nodes[i]] = true;
+                distinct++;
+            }
+        }
+        DistanceMatrix matrix = new DistanceMatrix(ids.clone());
+        double[] dist = new double[n];
+        int[] predecessor = new int[n];
+        // a node is reached/settled in the current search when its stamp equals the search number
+        int[] reached = new int[n];
+        int[] settled = new int[n];
+        IndexedHeap heap = new IndexedHeap(n);
+        for(int s = 0; s < k; s++) {
+            int stamp = s + 1;
+            int source = nodes[s];
+            dist[source] = 0.0;
+            predecessor[source] = -1;
+            reached[source] = stamp;
+            heap.push(source, 0.0);
+            int remaining = distinct;
+            while(!heap.isEmpty() && remaining > 0) {
+                int u = heap.pop();
+                settled[u] = stamp;
+                if(isTarget[u]) {
+                    remaining--;
+                }
+                for(int e = offsets[u]; e < offsets[u + 1]; e++) {
+                    int v = targets[e];
+                    if(settled[v] == stamp) {
+                        continue;
+                    }
+                    double d = dist[u] + weights[e];
+                    if(reached[v] != stamp || d < dist[v]) {
+                        reached[v] = stamp;
+                        dist[v] = d;
+                        predecessor[v] = e;
+                        heap.push(v, d);
+                    }
+                }
+            }
+            heap.clear();
+            for(int t = 0; t < k; t++) {
+                if(settled[nodes[t]] == stamp) {
+                    matrix.costs[s * k + t] = dist[nodes[t]];
+                    matrix.paths[s * k + t] = buildPath(graph, sources, predecessor, nodes[t]);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    private static int[] buildPath(CompactGraph graph, int[] sources, int[] predecessor, int node) {
+        int length = 1;
+        for(int v = node; predecessor[v] >= 0; v = sources[predecessor[v]]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for(int v = node, i = length - 1; i >= 0; i--) {
+            path[i] = graph.getId(v);
+            if(i > 0) {
+                v = sources[predecessor[v]];
+            }
+        }
+        return path;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    public double getCost(int i, int j) {
+        return costs[i * ids.length + j];
+    }
+
+    public int[] getPath(int i, int j) {
+        return paths[i * ids.length + j];
+    }
+}
@@ -2,20 +2,27 @@ package schmitt.mmas.graph;
 
 public class Edge {
 
+    // slot of this edge in the compact graph arrays
+    private int index;
+
     private Node from;
 
     private Node to;
 
     private double distance;
 
-    private double pheromone;
-
-    private double total;
-
     public Edge() {
         super();
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     public Node getFrom() {
         return from;
     }
@@ -40,24 +47,8 @@ public class Edge {
         this.distance = distance;
     }
 
-    public double getPheromone() {
-        return pheromone;
-    }
-
-    public void setPheromone(double pheromone) {
-        this.pheromone = pheromone;
-    }
-
-    public double getTotal() {
-        return total;
-    }
-
-    public void setTotal(double total) {
-        this.total = total;
-    }
-
     @Override
     public String toString() {
-        return from.getId() + "->" + to.getId() + " = " + getTotal();
+        return from.getId() + "->" + to.getId() + " = " + getDistance();
     }
 }
@@ -8,7 +8,11 @@ public class Graph {
 
     private Map<Integer, Node> nodesIndex;
 
-    private Set<Edge> edges;
+    private List<Edge> edges;
+
+    private CompactGraph compact;
+
+    private Edge[] edgesByIndex;
 
     private double upperX;
 
@@ -21,17 +25,41 @@ public class Graph {
     public Graph() {
         this.nodes = new ArrayList<>();
         this.nodesIndex = new HashMap<>();
-        edges = new HashSet<>();
+        edges = new ArrayList<>();
         upperX = Double.MAX_VALUE * -1.0;
         lowerX = Double.MAX_VALUE;
         upperY = Double.MAX_VALUE * -1.0;
         lowerY = Double.MAX_VALUE;
     }
 
+    /**
+     * Builds the graph of an already compacted form, keeping that form instead of compacting again.
+     */
+    public Graph(CompactGraph compact) {
+        this();
+        int[] offsets = compact.getOffsets();
+        int[] targets = compact.getTargets();
+        double[] distance = compact.getDistance();
+        for(int node = 0; node < compact.getNodesLength(); node++) {
+            addNode(compact.getId(node), compact.getX()[node], compact.getY()[node]);
+        }
+        edgesByIndex = new Edge[compact.getEdgesLength()];
+        for(int node = 0; node < compact.getNodesLength(); node++) {
+            for(int e = offsets[node]; e < offsets[node + 1]; e++) {
+                addEdge(compact.getId(node), compact.getId(targets[e]), distance[e]);
+                Edge edge = edges.get(e);
+                edge.setIndex(e);
+                edgesByIndex[e] = edge;
+            }
+        }
+        this.compact = compact;
+    }
+
     public void addNode(int id, double x, double y) {
         if(!this.nodesIndex.containsKey(id)) {
             Node node = new Node();
             node.setId(id);
+            node.setIndex(this.nodes.size());
             node.setX(x);
             node.setY(y);
             this.nodes.add(node);
@@ -40,6 +68,7 @@ public class Graph {
             upperX = Math.max(upperX, x);
             lowerY = Math.min(lowerY, y);
             upperY = Math.max(upperY, y);
+            compact = null;
         }
     }
 
@@ -47,6 +76,10 @@ public class Graph {
         return this.nodesIndex.get(id);
     }
 
+    public Node getNodeByIndex(int index) {
+        return this.nodes.get(index);
+    }
+
     public void addEdge(int idFrom, int idTo, double distance) {
         Node from = getNode(idFrom);
         Node to = getNode(idTo);
@@ -57,24 +90,66 @@ public class Graph {
             edge.setTo(to);
             edge.setDistance(distance);
             edges.add(edge);
+            compact = null;
         }
     }
 
-    public Set<Edge> getEdges(int from) {
+    public List<Edge> getEdges(int from) {
         return getNode(from).getEdges();
     }
 
     public Edge getEdge(int from, int to) {
-        Set<Edge> edges = getEdges(from);
-        for(Edge edge : edges) {
-            if(edge.getTo().getId() == to) {
-                return edge;
+        CompactGraph compact = getCompact();
+        int fromIndex = compact.indexOf(from);
+        int toIndex = compact.indexOf(to);
+        if(fromIndex < 0 || toIndex < 0) {
+            return null;
+        }
+        int edge = compact.edgeIndex(fromIndex, toIndex);
+        return edge < 0 ? null : edgesByIndex[edge];
+    }
+
+    public Edge getEdgeByIndex(int index) {
+        getCompact();
+        return edgesByIndex[index];
+    }
+
+    /**
+     * Returns the CSR form of this graph, building it on first use. Any later addNode/addEdge discards
+     * it, so the graph must not be changed while solvers are running on it.
+     */
+    public synchronized CompactGraph getCompact() {
+        if(compact == null) {
+            int n = nodes.size();
+            int[] ids = new int[n];
+            double[] x = new double[n];
+            double[] y = new double[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[edges.size()];
+            double[] distance = new double[edges.size()];
+            edgesByIndex = new Edge[edges.size()];
+            int slot = 0;
+            for(Node node : nodes) {
+                ids[node.getIndex()] = node.getId();
+                x[node.getIndex()] = node.getX();
+                y[node.getIndex()] = node.getY();
+                offsets[node.getIndex()] = slot;
+                node.getEdges().sort(Comparator.comparingInt(edge -> edge.getTo().getIndex()));
+                for(Edge edge : node.getEdges()) {
+                    edge.setIndex(slot);
+                    targets[slot] = edge.getTo().getIndex();
+                    distance[slot] = edge.getDistance();
+                    edgesByIndex[slot] = edge;
+                    slot++;
+                }
             }
+            offsets[n] = slot;
+            compact = new CompactGraph(ids, x, y, offsets, targets, distance);
         }
-        return null;
+        return compact;
     }
 
-    public Set<Edge> getEdges() {
+    public List<Edge> getEdges() {
         return edges;
     }
 
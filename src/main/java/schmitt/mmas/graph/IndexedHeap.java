@@ -0,0 +1,104 @@
+package schmitt.mmas.graph;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of node indexes keyed by a double priority, with decrease-key.
+ * Backed by primitive arrays sized once for the whole graph.
+ */
+public class IndexedHeap {
+
+    private int[] heap;
+
+    // heap position by node index, -1 when the node is not in the heap
+    private int[] position;
+
+    private double[] priority;
+
+    private int size;
+
+    public IndexedHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        priority = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int node) {
+        return position[node] >= 0;
+    }
+
+    /**
+     * Inserts the node, or lowers its priority if it is already queued with a higher one.
+     */
+    public void push(int node, double value) {
+        if(position[node] < 0) {
+            heap[size] = node;
+            position[node] = size;
+            priority[node] = value;
+            siftUp(size++);
+        } else if(value < priority[node]) {
+            priority[node] = value;
+            siftUp(position[node]);
+        }
+    }
+
+    public int pop() {
+        int top = heap[0];
+        position[top] = -1;
+        if(--size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Empties the heap, only touching the nodes still queued.
+     */
+    public void clear() {
+        for(int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int pos) {
+        int node = heap[pos];
+        while(pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if(priority[heap[parent]] <= priority[node]) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            position[heap[pos]] = pos;
+            pos = parent;
+        }
+        heap[pos] = node;
+        position[node] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int node = heap[pos];
+        int half = size >>> 1;
+        while(pos < half) {
+            int child = 2 * pos + 1;
+            if(child + 1 < size && priority[heap[child + 1]] < priority[heap[child]]) {
+                child++;
+            }
+            if(priority[node] <= priority[heap[child]]) {
+                break;
+            }
+            heap[pos] = heap[child];
+            position[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = node;
+        position[node] = pos;
+    }
+}
@@ -1,23 +1,26 @@
 package schmitt.mmas.graph;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Node {
 
     private int id;
 
+    // dense internal index, position in the graph's node list
+    private int index;
+
     // latitude
     private double x;
 
     // longitude
     private double y;
 
-    private Set<Edge> edges;
+    private List<Edge> edges;
 
     public Node() {
         super();
-        this.edges = new HashSet<>();
+        this.edges = new ArrayList<>();
     }
 
     public int getId() {
@@ -28,6 +31,14 @@ public class Node {
         this.id = id;
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     public double getX() {
         return x;
     }
@@ -44,7 +55,7 @@ public class Node {
         this.y = y;
     }
 
-    public Set<Edge> getEdges() {
+    public List<Edge> getEdges() {
         return this.edges;
     }
 
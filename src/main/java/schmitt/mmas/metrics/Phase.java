@@ -0,0 +1,12 @@
+package schmitt.mmas.metrics;
+
+/**
+ * Steps of a solver iteration that are timed separately.
+ */
+public enum Phase {
+    CONSTRUCT_SOLUTIONS,
+    LOCAL_SEARCH,
+    UPDATE_STATISTICS,
+    PHEROMONE_UPDATE,
+    SEARCH_CONTROL
+}
@@ -0,0 +1,190 @@
+package schmitt.mmas.metrics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and gauges of one solver. Updates are a LongAdder increment or a volatile write, so the metrics stay
+ * on under load; JMX readers only pay for the sums when they ask for them.
+ */
+public class SolverMetrics implements SolverMetricsMXBean {
+
+    public static final String DOMAIN = "schmitt.mmas";
+
+    private final long createdAt;
+
+    private final LongAdder iterations;
+
+    private final LongAdder tours;
+
+    private final LongAdder backtracks;
+
+    private final LongAdder lifeTimeFallbacks;
+
+    private final LongAdder deadEnds;
+
+    private final LongAdder restarts;
+
+    // by Phase ordinal, nanoseconds
+    private final LongAdder[] phaseTimes;
+
+    private volatile double bestCost;
+
+    private ObjectName objectName;
+
+    public SolverMetrics() {
+        createdAt = System.nanoTime();
+        iterations = new LongAdder();
+        tours = new LongAdder();
+        backtracks = new LongAdder();
+        lifeTimeFallbacks = new LongAdder();
+        deadEnds = new LongAdder();
+        restarts = new LongAdder();
+        phaseTimes = new LongAdder[Phase.values().length];
+        for(int i = 0; i < phaseTimes.length; i++) {
+            phaseTimes[i] = new LongAdder();
+        }
+        bestCost = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as schmitt.mmas:type=type,name=name.
+     */
+    public synchronized void register(String type, String name) {
+        if(objectName != null) {
+            throw new RuntimeException("Metrics are already registered as " + objectName);
+        }
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (Exception e) {
+            throw new RuntimeException("Could not register metrics " + name, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if(objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        objectName = null;
+    }
+
+    /**
+     * Adds the time since start to the phase.
+     *
+     * @return the current time, to start the next phase from
+     */
+    public long time(Phase phase, long start) {
+        long now = System.nanoTime();
+        phaseTimes[phase.ordinal()].add(now - start);
+        return now;
+    }
+
+    public void onIteration(int tours) {
+        iterations.increment();
+        this.tours.add(tours);
+    }
+
+    public void addBacktracks(long backtracks) {
+        if(backtracks > 0) {
+            this.backtracks.add(backtracks);
+        }
+    }
+
+    public void addLifeTimeFallbacks(long fallbacks) {
+        if(fallbacks > 0) {
+            lifeTimeFallbacks.add(fallbacks);
+        }
+    }
+
+    public void addDeadEnds(long deadEnds) {
+        if(deadEnds > 0) {
+            this.deadEnds.add(deadEnds);
+        }
+    }
+
+    public void onRestart() {
+        restarts.increment();
+    }
+
+    public void setBestCost(double bestCost) {
+        this.bestCost = bestCost;
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    @Override
+    public double getIterationsPerSecond() {
+        return perSecond(iterations.sum());
+    }
+
+    @Override
+    public long getTours() {
+        return tours.sum();
+    }
+
+    @Override
+    public double getToursPerSecond() {
+        return perSecond(tours.sum());
+    }
+
+    @Override
+    public long getBacktracks() {
+        return backtracks.sum();
+    }
+
+    @Override
+    public long getLifeTimeFallbacks() {
+        return lifeTimeFallbacks.sum();
+    }
+
+    @Override
+    public long getDeadEnds() {
+        return deadEnds.sum();
+    }
+
+    @Override
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    @Override
+    public double getBestCost() {
+        return bestCost;
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return (System.nanoTime() - createdAt) / 1000000L;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMillis() {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for(Phase phase : Phase.values()) {
+            millis.put(phase.name(), phaseTimes[phase.ordinal()].sum() / 1e6);
+        }
+        return millis;
+    }
+
+    private double perSecond(long count) {
+        long elapsed = System.nanoTime() - createdAt;
+        return elapsed <= 0 ? 0.0 : count * 1e9 / elapsed;
+    }
+}
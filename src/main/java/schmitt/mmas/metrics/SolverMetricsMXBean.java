@@ -0,0 +1,43 @@
+package schmitt.mmas.metrics;
+
+import java.util.Map;
+
+/**
+ * Live counters of a solver as seen over JMX. Rates are averages since the solver's metrics were created.
+ */
+public interface SolverMetricsMXBean {
+
+    long getIterations();
+
+    double getIterationsPerSecond();
+
+    long getTours();
+
+    double getToursPerSecond();
+
+    /**
+     * Steps an ant took back out of a dead end while building its tour.
+     */
+    long getBacktracks();
+
+    /**
+     * Tours that ran past the colony's life time and were replaced by the nearest neighbour tour.
+     */
+    long getLifeTimeFallbacks();
+
+    /**
+     * Tours that could not be completed.
+     */
+    long getDeadEnds();
+
+    long getRestarts();
+
+    double getBestCost();
+
+    long getUptimeMillis();
+
+    /**
+     * Total time spent in each phase of the iterations, in milliseconds.
+     */
+    Map<String, Double> getPhaseMillis();
+}
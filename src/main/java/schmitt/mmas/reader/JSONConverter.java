@@ -1,55 +1,71 @@
 package schmitt.mmas.reader;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import org.apache.commons.io.IOUtils;
-import schmitt.mmas.graph.Edge;
+import com.google.gson.stream.JsonReader;
 import schmitt.mmas.graph.Graph;
-import schmitt.mmas.graph.Node;
 
-import java.io.File;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.util.Iterator;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class JSONConverter {
 
+    /**
+     * Streams the file once. Edges are added as soon as both ends are known; edges towards nodes that
+     * appear later in the file wait in primitive buffers and are added at the end.
+     */
     public static Graph readGraph(String jsonFile) {
         Graph graph = new Graph();
 
-        try {
-            FileInputStream fisTargetFile = new FileInputStream(new File(jsonFile));
-            String fileContent = IOUtils.toString(fisTargetFile, "UTF-8");
-            JsonParser parser = new JsonParser();
-            JsonArray rootArray = parser.parse(fileContent).getAsJsonArray();
-
-            Iterator<JsonElement> nodesIterator = rootArray.iterator();
-            while(nodesIterator.hasNext()) {
-                JsonObject element = nodesIterator.next().getAsJsonObject();
-                graph.addNode(
-                    element.get("id").getAsInt(),
-                    element.get("lng").getAsDouble(),
-                    element.get("lat").getAsDouble()
-                );
-            }
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(
+                new FileInputStream(jsonFile), StandardCharsets.UTF_8), 1 << 16))) {
+            EdgeBuffer nodeEdges = new EdgeBuffer();
+            EdgeBuffer pendingEdges = new EdgeBuffer();
+
+            reader.beginArray();
+            while(reader.hasNext()) {
+                int id = 0;
+                double lat = 0.0;
+                double lng = 0.0;
+                nodeEdges.clear();
+                reader.beginObject();
+                while(reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "id":
+                            id = reader.nextInt();
+                            break;
+                        case "lat":
+                            lat = reader.nextDouble();
+                            break;
+                        case "lng":
+                            lng = reader.nextDouble();
+                            break;
+                        case "nodes":
+                            readEdges(reader, nodeEdges);
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
 
-            nodesIterator = rootArray.iterator();
-            while(nodesIterator.hasNext()) {
-                JsonObject element = nodesIterator.next().getAsJsonObject();
-                JsonObject edges = element.getAsJsonObject("nodes");
-                if(edges != null) {
-                    for (String key : edges.keySet()) {
-                        if (element.get("id").getAsInt() != Integer.parseInt(key)) {
-                            graph.addEdge(
-                                    element.get("id").getAsInt(),
-                                    Integer.parseInt(key),
-                                    edges.getAsJsonObject(key).get("distance").getAsDouble()
-                            );
+                graph.addNode(id, lng, lat);
+                for(int i = 0; i < nodeEdges.size; i++) {
+                    if(nodeEdges.to[i] != id) {
+                        if(graph.getNode(nodeEdges.to[i]) != null) {
+                            graph.addEdge(id, nodeEdges.to[i], nodeEdges.distance[i]);
+                        } else {
+                            pendingEdges.add(id, nodeEdges.to[i], nodeEdges.distance[i]);
                         }
                     }
                 }
             }
+            reader.endArray();
+
+            for(int i = 0; i < pendingEdges.size; i++) {
+                graph.addEdge(pendingEdges.from[i], pendingEdges.to[i], pendingEdges.distance[i]);
+            }
 
             return graph;
         } catch (Exception e) {
@@ -58,4 +74,50 @@ public class JSONConverter {
         }
     }
 
+    private static void readEdges(JsonReader reader, EdgeBuffer edges) throws Exception {
+        reader.beginObject();
+        while(reader.hasNext()) {
+            int to = Integer.parseInt(reader.nextName());
+            double distance = 0.0;
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if("distance".equals(reader.nextName())) {
+                    distance = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            edges.add(0, to, distance);
+        }
+        reader.endObject();
+    }
+
+    private static class EdgeBuffer {
+
+        private int[] from = new int[16];
+
+        private int[] to = new int[16];
+
+        private double[] distance = new double[16];
+
+        private int size;
+
+        private void add(int from, int to, double distance) {
+            if(size == this.to.length) {
+                this.from = Arrays.copyOf(this.from, size * 2);
+                this.to = Arrays.copyOf(this.to, size * 2);
+                this.distance = Arrays.copyOf(this.distance, size * 2);
+            }
+            this.from[size] = from;
+            this.to[size] = to;
+            this.distance[size] = distance;
+            size++;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+
 }
@@ -0,0 +1,194 @@
+package schmitt.mmas.reader;
+
+import schmitt.mmas.graph.CompactGraph;
+import schmitt.mmas.graph.Graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of a graph's CSR form, read through a memory mapping of the file.
+ *
+ * Layout (little endian): magic, version, node count n, edge count m, then ids[n], offsets[n + 1] and
+ * targets[m] as ints, padded to 8 bytes, then x[n], y[n] and distance[m] as doubles.
+ *
+ * Snapshots only replace JSON parsing, they are not a shared-memory format: every section is copied into a heap
+ * array, because the solvers index plain arrays, and Graph then builds its Node and Edge objects from them. Each
+ * process holds its own copy of the graph. The CSR sections are validated before use, so a corrupt snapshot fails
+ * here rather than inside the solvers.
+ */
+public class SnapshotConverter {
+
+    private static final int MAGIC = 0x53414D4D; // "MMAS"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    // largest region mapped at once, mappings are limited to 2 GiB
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    /**
+     * Writes the snapshot to a temporary file moved over snapshotFile once complete, so a failed write leaves any
+     * previous snapshot in place.
+     */
+    public static void writeGraph(Graph graph, String snapshotFile) {
+        CompactGraph compact = graph.getCompact();
+        int n = compact.getNodesLength();
+        int m = compact.getEdgesLength();
+        File temporary = new File(snapshotFile + ".tmp");
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+                 FileChannel channel = file.getChannel()) {
+                file.setLength(snapshotSize(n, m));
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(m);
+                header.force();
+                long position = HEADER_SIZE;
+                position = writeInts(channel, position, compact.getIds());
+                position = writeInts(channel, position, compact.getOffsets());
+                writeInts(channel, position, compact.getTargets());
+                position = doublesStart(n, m);
+                position = writeDoubles(channel, position, compact.getX());
+                position = writeDoubles(channel, position, compact.getY());
+                writeDoubles(channel, position, compact.getDistance());
+            }
+            Files.move(temporary.toPath(), Paths.get(snapshotFile),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporary.delete();
+            throw new RuntimeException("Could not write graph snapshot " + snapshotFile, e);
+        }
+    }
+
+    public static Graph readGraph(String snapshotFile) {
+        return new Graph(readCompactGraph(snapshotFile));
+    }
+
+    /**
+     * Maps the file read-only a section at a time and bulk copies each section into the arrays of the compact graph.
+     */
+    public static CompactGraph readCompactGraph(String snapshotFile) {
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshotFile), StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE) {
+                throw new RuntimeException(snapshotFile + " is not a graph snapshot");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt() != MAGIC) {
+                throw new RuntimeException(snapshotFile + " is not a graph snapshot");
+            }
+            int version = header.getInt();
+            if(version != VERSION) {
+                throw new RuntimeException("Unsupported graph snapshot version " + version);
+            }
+            int n = header.getInt();
+            int m = header.getInt();
+            if(n < 0 || m < 0 || channel.size() != snapshotSize(n, m)) {
+                throw new RuntimeException(snapshotFile + " is truncated");
+            }
+            int[] ids = new int[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[m];
+            long position = HEADER_SIZE;
+            position = readInts(channel, position, ids);
+            position = readInts(channel, position, offsets);
+            readInts(channel, position, targets);
+            double[] x = new double[n];
+            double[] y = new double[n];
+            double[] distance = new double[m];
+            position = doublesStart(n, m);
+            position = readDoubles(channel, position, x);
+            position = readDoubles(channel, position, y);
+            readDoubles(channel, position, distance);
+            validate(snapshotFile, n, m, offsets, targets);
+            return new CompactGraph(ids, x, y, offsets, targets, distance);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read graph snapshot " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Checks that the offsets run from 0 to m without decreasing and that every target is a node index.
+     */
+    private static void validate(String snapshotFile, int n, int m, int[] offsets, int[] targets) {
+        if(offsets[0] != 0 || offsets[n] != m) {
+            throw new RuntimeException(snapshotFile + " is corrupt: offsets do not span the edges");
+        }
+        for(int node = 0; node < n; node++) {
+            if(offsets[node + 1] < offsets[node]) {
+                throw new RuntimeException(snapshotFile + " is corrupt: offsets decrease at node " + node);
+            }
+        }
+        for(int e = 0; e < m; e++) {
+            if(targets[e] < 0 || targets[e] >= n) {
+                throw new RuntimeException(snapshotFile + " is corrupt: target of edge " + e + " out of range");
+            }
+        }
+    }
+
+    private static long writeInts(FileChannel channel, long position, int[] values) throws IOException {
+        for(int i = 0; i < values.length; ) {
+            int count = (int) Math.min(values.length - i, CHUNK_SIZE / 4);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, 4L * count);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(values, i, count);
+            buffer.force();
+            position += 4L * count;
+            i += count;
+        }
+        return position;
+    }
+
+    private static long writeDoubles(FileChannel channel, long position, double[] values) throws IOException {
+        for(int i = 0; i < values.length; ) {
+            int count = (int) Math.min(values.length - i, CHUNK_SIZE / 8);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, 8L * count);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values, i, count);
+            buffer.force();
+            position += 8L * count;
+            i += count;
+        }
+        return position;
+    }
+
+    private static long readInts(FileChannel channel, long position, int[] values) throws IOException {
+        for(int i = 0; i < values.length; ) {
+            int count = (int) Math.min(values.length - i, CHUNK_SIZE / 4);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values, i, count);
+            position += 4L * count;
+            i += count;
+        }
+        return position;
+    }
+
+    private static long readDoubles(FileChannel channel, long position, double[] values) throws IOException {
+        for(int i = 0; i < values.length; ) {
+            int count = (int) Math.min(values.length - i, CHUNK_SIZE / 8);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values, i, count);
+            position += 8L * count;
+            i += count;
+        }
+        return position;
+    }
+
+    private static long doublesStart(int n, int m) {
+        long ints = HEADER_SIZE + 4L * ((long) n + n + 1 + m);
+        return (ints + 7) & ~7L;
+    }
+
+    private static long snapshotSize(int n, int m) {
+        return doublesStart(n, m) + 8L * ((long) n + n + m);
+    }
+
+}
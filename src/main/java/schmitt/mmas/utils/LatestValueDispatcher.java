@@ -0,0 +1,66 @@
+package schmitt.mmas.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Hands values to a consumer on another thread, keeping only the latest one. offer() never blocks: a value that
+ * arrives while the consumer is still busy replaces any value waiting in the single slot, so a slow consumer
+ * skips intermediate values instead of holding up the producer. The consumer is never called concurrently.
+ */
+public class LatestValueDispatcher<T> {
+
+    private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "solution-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Consumer<T> consumer;
+
+    private final Executor executor;
+
+    private final AtomicReference<T> latest;
+
+    // a drain task is queued or running
+    private final AtomicBoolean scheduled;
+
+    public LatestValueDispatcher(Consumer<T> consumer) {
+        this(consumer, DELIVERY);
+    }
+
+    public LatestValueDispatcher(Consumer<T> consumer, Executor executor) {
+        this.consumer = consumer;
+        this.executor = executor;
+        this.latest = new AtomicReference<>();
+        this.scheduled = new AtomicBoolean();
+    }
+
+    public void offer(T value) {
+        latest.set(value);
+        if(scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        T value;
+        while((value = latest.getAndSet(null)) != null) {
+            try {
+                consumer.accept(value);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        scheduled.set(false);
+        // a value offered after the slot was found empty but before the flag was cleared
+        if(latest.get() != null && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+}
@@ -1,20 +1,28 @@
 package schmitt.mmas.utils;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 
+/**
+ * Appends lines to one file per leg in a directory, for experiments. Nothing is written until a directory is set.
+ * Opens the file on every call, solvers record through StatisticsRecorder instead.
+ */
 public class LogFile {
 
-    private static boolean log = Boolean.FALSE;
+    private static volatile String directory;
+
+    public static void setDirectory(String directory) {
+        LogFile.directory = directory;
+    }
 
     public static void writeInFile(int fromId, int toId, String msg) {
-        if(log) {
-            try {
-                BufferedWriter bw = new BufferedWriter(new FileWriter(
-                        "/home/joao/projects/master-degree/mmas-vrp/statistics/" + fromId + "->" + toId + ".txt", true));
+        String directory = LogFile.directory;
+        if(directory != null) {
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(
+                    new File(directory, fromId + "->" + toId + ".txt"), true))) {
                 bw.write(msg);
                 bw.newLine();
-                bw.flush();
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
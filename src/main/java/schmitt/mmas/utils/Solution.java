@@ -0,0 +1,25 @@
+package schmitt.mmas.utils;
+
+/**
+ * A route found by a solver and its cost, as handed to listeners and anytime handles.
+ */
+public final class Solution {
+
+    private final Integer[] route;
+
+    private final double cost;
+
+    public Solution(Integer[] route, double cost) {
+        this.route = route;
+        this.cost = cost;
+    }
+
+    public Integer[] getRoute() {
+        return route;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+}
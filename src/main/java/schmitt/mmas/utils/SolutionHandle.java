@@ -0,0 +1,66 @@
+package schmitt.mmas.utils;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Anytime view of a running solver: the best solution so far can be read at any moment from any thread, and
+ * getResult() completes with the final solution once the solver stops.
+ */
+public class SolutionHandle {
+
+    private volatile Solution best;
+
+    private final CompletableFuture<Solution> result;
+
+    public SolutionHandle() {
+        result = new CompletableFuture<>();
+    }
+
+    /**
+     * Called by the solver thread with each improving solution.
+     */
+    public void offer(Solution solution) {
+        Solution best = this.best;
+        if(best == null || solution.getCost() <= best.getCost()) {
+            this.best = solution;
+        }
+    }
+
+    /**
+     * Called by the solver thread when the best solution changed in a way costs can not compare, such as a tour
+     * over another set of targets.
+     */
+    public void replace(Solution solution) {
+        this.best = solution;
+    }
+
+    /**
+     * The final solution also becomes the best one, so getBest() and getResult() agree. Only the first call counts.
+     */
+    public void complete(Solution solution) {
+        if(!result.isDone()) {
+            this.best = solution;
+            result.complete(solution);
+        }
+    }
+
+    public void completeExceptionally(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    /**
+     * The best solution so far, or null before the first one.
+     */
+    public Solution getBest() {
+        return best;
+    }
+
+    public CompletableFuture<Solution> getResult() {
+        return result;
+    }
+
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+}
@@ -0,0 +1,11 @@
+package schmitt.mmas.utils;
+
+/**
+ * File formats of a StatisticsRecorder's output.
+ */
+public enum StatisticsFormat {
+    // iteration,mean,best,worst,bestSoFar with a header line
+    CSV,
+    // one big-endian int and four doubles per record, no header
+    BINARY
+}
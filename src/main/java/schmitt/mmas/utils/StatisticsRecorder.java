@@ -0,0 +1,218 @@
+package schmitt.mmas.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-iteration cost statistics of one solver, kept in fixed-size primitive columns used as a ring: the solver
+ * thread only stores numbers, it never boxes, formats or touches a file.
+ *
+ * Without an output file the columns hold the last capacity records. With one, a shared background thread
+ * drains new records to it every DRAIN_PERIOD milliseconds, and records that arrive while the ring is full of
+ * undrained ones are dropped rather than block the solver (see getDropped()).
+ */
+public class StatisticsRecorder {
+
+    private static final long DRAIN_PERIOD = 200;
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "statistics-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int mask;
+
+    private final int[] iterations;
+
+    private final double[] means;
+
+    private final double[] bests;
+
+    private final double[] worsts;
+
+    private final double[] bestsSoFar;
+
+    // records ever written by the solver, the next one goes to head & mask
+    private volatile long head;
+
+    // records written to the output
+    private volatile long tail;
+
+    // solver thread only
+    private long dropped;
+
+    // records the output failed to take, written by the draining thread
+    private volatile long lost;
+
+    private final StatisticsFormat format;
+
+    private BufferedWriter csv;
+
+    private DataOutputStream binary;
+
+    private ScheduledFuture<?> drainTask;
+
+    /**
+     * @param capacity number of records kept, rounded up to a power of two
+     * @param file output file, or null to keep the records in memory only
+     */
+    public StatisticsRecorder(int capacity, String file, StatisticsFormat format) {
+        if(capacity < 1) {
+            throw new RuntimeException("Statistics capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        iterations = new int[size];
+        means = new double[size];
+        bests = new double[size];
+        worsts = new double[size];
+        bestsSoFar = new double[size];
+        this.format = format;
+        if(file != null) {
+            open(file);
+            drainTask = WRITER.scheduleWithFixedDelay(this::drain, DRAIN_PERIOD, DRAIN_PERIOD, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void open(String file) {
+        try {
+            if(format == StatisticsFormat.BINARY) {
+                binary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            } else {
+                csv = new BufferedWriter(new FileWriter(file));
+                csv.write("iteration,mean,best,worst,bestSoFar");
+                csv.newLine();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open statistics file " + file, e);
+        }
+    }
+
+    /**
+     * Solver thread only.
+     */
+    public void record(int iteration, double mean, double best, double worst, double bestSoFar) {
+        long head = this.head;
+        if(drainTask != null && head - tail > mask) {
+            dropped++;
+            return;
+        }
+        int i = (int) head & mask;
+        iterations[i] = iteration;
+        means[i] = mean;
+        bests[i] = best;
+        worsts[i] = worst;
+        bestsSoFar[i] = bestSoFar;
+        this.head = head + 1;
+    }
+
+    private synchronized void drain() {
+        if(csv == null && binary == null) {
+            return;
+        }
+        long head = this.head;
+        try {
+            for(long record = tail; record < head; record++) {
+                int i = (int) record & mask;
+                if(binary != null) {
+                    binary.writeInt(iterations[i]);
+                    binary.writeDouble(means[i]);
+                    binary.writeDouble(bests[i]);
+                    binary.writeDouble(worsts[i]);
+                    binary.writeDouble(bestsSoFar[i]);
+                } else {
+                    csv.write(iterations[i] + "," + means[i] + "," + bests[i] + "," + worsts[i] + "," + bestsSoFar[i]);
+                    csv.newLine();
+                }
+            }
+            if(binary != null) {
+                binary.flush();
+            } else {
+                csv.flush();
+            }
+        } catch (IOException e) {
+            // the batch may be partly buffered, count all of it as lost rather than retry and duplicate records
+            e.printStackTrace();
+            lost += head - tail;
+        }
+        tail = head;
+    }
+
+    /**
+     * Writes out the remaining records and closes the output file. Records made afterwards stay in memory.
+     */
+    public synchronized void close() {
+        if(drainTask == null) {
+            return;
+        }
+        drainTask.cancel(false);
+        drain();
+        try {
+            if(binary != null) {
+                binary.close();
+            } else {
+                csv.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        binary = null;
+        csv = null;
+        drainTask = null;
+    }
+
+    /**
+     * Records dropped because the output fell behind by more than the capacity, or lost to a failed write.
+     */
+    public long getDropped() {
+        return dropped + lost;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Mean cost by iteration of the records still held in the columns, boxed on every call. Like the other map
+     * views, it is meant for the solver thread or for after the run.
+     */
+    public Map<Integer, Double> getMeans() {
+        return toMap(means);
+    }
+
+    public Map<Integer, Double> getBests() {
+        return toMap(bests);
+    }
+
+    public Map<Integer, Double> getWorsts() {
+        return toMap(worsts);
+    }
+
+    public Map<Integer, Double> getBestsSoFar() {
+        return toMap(bestsSoFar);
+    }
+
+    private Map<Integer, Double> toMap(double[] column) {
+        Map<Integer, Double> map = new LinkedHashMap<>();
+        long head = this.head;
+        for(long record = Math.max(0, head - column.length); record < head; record++) {
+            int i = (int) record & mask;
+            map.put(iterations[i], column[i]);
+        }
+        return map;
+    }
+}
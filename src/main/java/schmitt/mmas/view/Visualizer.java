@@ -2,9 +2,8 @@ package schmitt.mmas.view;
 
 import schmitt.mmas.aco.path.PathListener;
 import schmitt.mmas.aco.router.RouteListener;
-import schmitt.mmas.graph.Edge;
+import schmitt.mmas.graph.CompactGraph;
 import schmitt.mmas.graph.Graph;
-import schmitt.mmas.graph.Node;
 
 import javax.swing.*;
 import java.awt.*;
@@ -89,18 +88,21 @@ public class Visualizer extends JFrame implements PathListener, RouteListener {
         this.nodes.clear();
         this.edges.clear();
         this.route.clear();
-        for (Node node : graph.getNodes()) {
-            int x = (int) (scaleW * (node.getX() - graph.getLowerX()));
-            int y = (int) (scaleH * (graph.getUpperY() - node.getY()));
-            this.addNode(String.valueOf(node.getId()), x, y);
-            for (Edge edges : node.getEdges()) {
-                this.addEdge(node.getId(), edges.getTo().getId());
+        CompactGraph compact = graph.getCompact();
+        int[] offsets = compact.getOffsets();
+        int[] targets = compact.getTargets();
+        for (int node = 0; node < compact.getNodesLength(); node++) {
+            int x = (int) (scaleW * (compact.getX()[node] - graph.getLowerX()));
+            int y = (int) (scaleH * (graph.getUpperY() - compact.getY()[node]));
+            this.addNode(String.valueOf(compact.getId(node)), x, y);
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                this.addEdge(node, targets[e]);
             }
         }
         if(tour != null) {
             bestRoute = tour;
             for (int i = 0; i < tour.length - 1; i++) {
-                this.addRoute(tour[i], tour[i + 1]);
+                this.addRoute(compact.indexOf(tour[i]), compact.indexOf(tour[i + 1]));
             }
         }
         this.repaint();
@@ -1,20 +1,38 @@
 package schmitt.mmas;
 
 import org.junit.Test;
+import schmitt.mmas.aco.path.IslandPathSolver;
 import schmitt.mmas.aco.path.PathSolver;
 import schmitt.mmas.aco.path.Statistics;
+import schmitt.mmas.aco.router.Ant;
+import schmitt.mmas.aco.router.ClusteredRouteSolver;
+import schmitt.mmas.aco.router.LegCache;
+import schmitt.mmas.aco.router.LegChangeLog;
+import schmitt.mmas.aco.router.LegMode;
+import schmitt.mmas.aco.router.LocalSearch;
 import schmitt.mmas.aco.router.Route;
+import schmitt.mmas.aco.router.RouteManager;
 import schmitt.mmas.aco.router.RouteSolver;
+import schmitt.mmas.graph.CompactGraph;
+import schmitt.mmas.graph.DistanceMatrix;
 import schmitt.mmas.graph.Graph;
 import schmitt.mmas.graph.Node;
 import schmitt.mmas.reader.JSONConverter;
+import schmitt.mmas.reader.SnapshotConverter;
 import schmitt.mmas.utils.*;
 import schmitt.mmas.utils.Timer;
 import schmitt.mmas.view.Visualizer;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
 
 public class TestGraphTools {
 
@@ -71,6 +89,661 @@ public class TestGraphTools {
 
     }
 
+    @Test
+    public void testCompactGraph() {
+        Graph graph = new Graph();
+        graph.addNode(10, -1, -1);
+        graph.addNode(500000, -2, -2);
+        graph.addNode(30, -3, -3);
+        graph.addEdge(10, 30, 5.0);
+        graph.addEdge(10, 500000, 7.0);
+        graph.addEdge(30, 10, 2.0);
+
+        CompactGraph compact = graph.getCompact();
+        assertThat(compact.getNodesLength()).isEqualTo(3);
+        assertThat(compact.getEdgesLength()).isEqualTo(3);
+        assertThat(compact.indexOf(500000)).isEqualTo(1);
+        assertThat(compact.indexOf(20)).isEqualTo(-1);
+        assertThat(compact.getOffsets()).containsExactly(0, 2, 2, 3);
+        assertThat(compact.getTargets()).containsExactly(1, 2, 0);
+        assertThat(compact.edgeIndex(0, 2)).isEqualTo(1);
+        assertThat(compact.edgeIndex(2, 1)).isEqualTo(-1);
+        assertThat(graph.getEdge(10, 30).getIndex()).isEqualTo(1);
+        assertThat(graph.getEdge(10, 30).getDistance()).isEqualTo(5.0);
+        assertThat(graph.getEdge(500000, 10)).isNull();
+
+        graph.addEdge(500000, 30, 1.0);
+        assertThat(graph.getCompact()).isNotSameAs(compact);
+        assertThat(graph.getEdge(500000, 30).getDistance()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testDistanceMatrix() {
+        Graph graph = new Graph();
+        for(int i = 0; i < 9; i++) {
+            graph.addNode(i, -i, -i);
+        }
+        graph.addEdge(1, 2, 7.0);
+        graph.addEdge(1, 3, 6.0);
+        graph.addEdge(2, 4, 5.0);
+        graph.addEdge(3, 2, 5.0);
+        graph.addEdge(3, 4, 8.0);
+        graph.addEdge(4, 5, 3.0);
+        graph.addEdge(5, 6, 5.0);
+        graph.addEdge(6, 7, 12.0);
+
+        DistanceMatrix matrix = DistanceMatrix.compute(graph.getCompact(), new int[] {1, 6, 3});
+        assertThat(matrix.getCost(0, 1)).isEqualTo(20.0);
+        assertThat(matrix.getPath(0, 1)).containsExactly(1, 2, 4, 5, 6);
+        assertThat(matrix.getCost(2, 1)).isEqualTo(16.0);
+        assertThat(matrix.getPath(2, 1)).containsExactly(3, 4, 5, 6);
+        assertThat(matrix.getCost(0, 2)).isEqualTo(6.0);
+        assertThat(matrix.getCost(1, 0)).isEqualTo(Double.MAX_VALUE);
+        assertThat(matrix.getPath(1, 0)).isNull();
+        assertThat(matrix.getCost(1, 1)).isEqualTo(0.0);
+    }
+
+    @Test
+    public void testSnapshotJoinville() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
+        Graph graph = JSONConverter.readGraph(jsonFile);
+
+        File snapshotFile = File.createTempFile("joinville", ".graph");
+        snapshotFile.deleteOnExit();
+        SnapshotConverter.writeGraph(graph, snapshotFile.getPath());
+        Graph snapshot = SnapshotConverter.readGraph(snapshotFile.getPath());
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.getNodesLength()).isEqualTo(2796);
+        assertThat(snapshot.getEdgesLength()).isEqualTo(6178);
+        assertThat(snapshot.getCompact().getIds()).isEqualTo(graph.getCompact().getIds());
+        assertThat(snapshot.getCompact().getOffsets()).isEqualTo(graph.getCompact().getOffsets());
+        assertThat(snapshot.getCompact().getTargets()).isEqualTo(graph.getCompact().getTargets());
+        assertThat(snapshot.getCompact().getDistance()).isEqualTo(graph.getCompact().getDistance());
+        assertThat(snapshot.getNode(868).getX()).isEqualTo(graph.getNode(868).getX());
+        assertThat(snapshot.getNode(868).getY()).isEqualTo(graph.getNode(868).getY());
+        assertThat(snapshot.getEdge(346, 358).getDistance()).isEqualTo(306.948);
+        assertThat(snapshot.getEdge(0, 868)).isNull();
+    }
+
+    @Test
+    public void testSnapshotTruncated() throws Exception {
+        Graph graph = new Graph();
+        graph.addNode(10, -1, -1);
+        graph.addNode(30, -3, -3);
+        graph.addEdge(10, 30, 5.0);
+
+        File snapshotFile = File.createTempFile("truncated", ".graph");
+        snapshotFile.deleteOnExit();
+        SnapshotConverter.writeGraph(graph, snapshotFile.getPath());
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+            file.setLength(file.length() - 8);
+        }
+        assertThatThrownBy(() -> SnapshotConverter.readGraph(snapshotFile.getPath()))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("truncated");
+    }
+
+    @Test
+    public void testSnapshotCorrupt() throws Exception {
+        Graph graph = new Graph();
+        graph.addNode(10, -1, -1);
+        graph.addNode(20, -2, -2);
+        graph.addNode(30, -3, -3);
+        graph.addEdge(10, 30, 5.0);
+        graph.addEdge(20, 10, 4.0);
+        File snapshotFile = File.createTempFile("corrupt", ".graph");
+        snapshotFile.deleteOnExit();
+
+        // header, ids[3], then offsets[4] = {0, 1, 2, 2}, then targets[2] = {2, 0}
+        int offsets = 16 + 3 * 4;
+        int targets = offsets + 4 * 4;
+        int[][] corruptions = {
+            {offsets, 1},           // offsets[0] != 0
+            {offsets + 3 * 4, 1},   // offsets[n] != m
+            {offsets + 4, 3},       // offsets decrease
+            {targets + 4, 3},       // target out of range
+            {targets, -1}           // negative target
+        };
+        for(int[] corruption : corruptions) {
+            SnapshotConverter.writeGraph(graph, snapshotFile.getPath());
+            try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+                file.seek(corruption[0]);
+                file.writeInt(Integer.reverseBytes(corruption[1]));
+            }
+            assertThatThrownBy(() -> SnapshotConverter.readCompactGraph(snapshotFile.getPath()))
+                    .isInstanceOf(RuntimeException.class)
+                    .hasMessageContaining("corrupt");
+        }
+        SnapshotConverter.writeGraph(graph, snapshotFile.getPath());
+        assertThat(SnapshotConverter.readCompactGraph(snapshotFile.getPath()).getTargets()).containsExactly(2, 0);
+    }
+
+    @Test
+    public void testLazyEvaporationJoinville() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
+        Graph graph = JSONConverter.readGraph(jsonFile);
+
+        int[][] legs = {{553, 1201}, {155, 2336}};
+        for(int[] leg : legs) {
+            for(long seed : new long[] {1, 7}) {
+                PathSolver eager = new PathSolver(graph, graph.getNode(leg[0]), graph.getNode(leg[1]));
+                eager.setSeed(seed);
+                eager.setLazyEvaporation(false);
+                eager.setup();
+                eager.solve();
+
+                PathSolver lazy = new PathSolver(graph, graph.getNode(leg[0]), graph.getNode(leg[1]));
+                lazy.setSeed(seed);
+                lazy.setLazyEvaporation(true);
+                lazy.setup();
+                lazy.solve();
+
+                assertThat(lazy.getResultCost()).isEqualTo(eager.getResultCost());
+                assertThat(lazy.getResultRoute()).containsExactly(eager.getResultRoute());
+            }
+        }
+    }
+
+    @Test
+    public void testLocalSearchAsymmetric() {
+        double none = Double.POSITIVE_INFINITY;
+        double[][] legs = {
+            {   0,   12, none,   30,    9,   25},
+            {  14,    0,    7, none,   22,   18},
+            {none,   11,    0,    6, none,   16},
+            {  28, none,    8,    0,   13,    5},
+            {   8,   21, none,   15,    0,   10},
+            {  27,   17,   19,    4, none,    0}};
+
+        Graph graph = new Graph();
+        for(int i = 0; i < legs.length; i++) {
+            graph.addNode(i, -i, -i);
+        }
+        schmitt.mmas.aco.router.Globals globals = new schmitt.mmas.aco.router.Globals();
+        globals.graph = graph;
+        globals.random = new SplittableRandom(3);
+        RouteManager routeManager = globals.routeManager;
+        for(int i = 0; i < legs.length; i++) {
+            routeManager.addTarget(graph.getNode(i));
+        }
+        for(int i = 0; i < legs.length; i++) {
+            for(int j = 0; j < legs.length; j++) {
+                if(i != j && legs[i][j] != none) {
+                    routeManager.addRoute(i, j);
+                    routeManager.getRoute(i, j).setExactResult(new int[] {i, j}, legs[i][j]);
+                }
+            }
+        }
+        routeManager.buildCandidateLists();
+        double[] costs = routeManager.getCosts();
+        globals.total = new double[costs.length];
+        for(int slot = 0; slot < costs.length; slot++) {
+            globals.total[slot] = 1.0 / costs[slot];
+        }
+        LocalSearch localSearch = new LocalSearch(globals);
+        localSearch.refresh();
+
+        double optimum = bruteForceTour(legs, new int[] {1, 2, 3, 4, 5}, 0);
+        double best = Double.MAX_VALUE;
+        int improved = 0;
+        Ant ant = new Ant(globals);
+        for(int start = 0; start < 50; start++) {
+            ant.heuristicTour();
+            if(ant.getCost() == Double.MAX_VALUE) {
+                continue;
+            }
+            double before = ant.getCost();
+            localSearch.improve(ant);
+
+            int[] tour = Arrays.copyOf(ant.getPath(), ant.getLength());
+            assertThat(tour.length).isEqualTo(legs.length + 1);
+            assertThat(tour[0]).isEqualTo(0);
+            assertThat(tour[tour.length - 1]).isEqualTo(0);
+            assertThat(Arrays.copyOf(tour, legs.length)).containsExactlyInAnyOrder(0, 1, 2, 3, 4, 5);
+            double cost = 0.0;
+            for(int i = 0; i < tour.length - 1; i++) {
+                cost += legs[tour[i]][tour[i + 1]];
+            }
+            assertThat(ant.getCost()).isEqualTo(cost);
+            assertThat(ant.getCost()).isLessThanOrEqualTo(before);
+            if(ant.getCost() < before) {
+                improved++;
+            }
+            best = Math.min(best, ant.getCost());
+        }
+        assertThat(improved).isPositive();
+        assertThat(best).isEqualTo(optimum);
+
+        // a tour left without one of the targets, as between a live removal and its refresh
+        int shortened = 0;
+        for(int start = 0; start < 50; start++) {
+            ant.heuristicTour();
+            ant.remove(3);
+            if(ant.getCost() == Double.MAX_VALUE) {
+                continue;
+            }
+            double before = ant.getCost();
+            localSearch.improve(ant);
+            int[] tour = Arrays.copyOf(ant.getPath(), ant.getLength());
+            assertThat(tour[0]).isEqualTo(0);
+            assertThat(tour[tour.length - 1]).isEqualTo(0);
+            assertThat(Arrays.copyOf(tour, tour.length - 1)).containsExactlyInAnyOrder(0, 1, 2, 4, 5);
+            assertThat(ant.getCost()).isLessThanOrEqualTo(before);
+            shortened++;
+        }
+        assertThat(shortened).isPositive();
+    }
+
+    private double bruteForceTour(double[][] legs, int[] targets, int fixed) {
+        if(fixed == targets.length) {
+            double cost = legs[0][targets[0]] + legs[targets[targets.length - 1]][0];
+            for(int i = 0; i < targets.length - 1; i++) {
+                cost += legs[targets[i]][targets[i + 1]];
+            }
+            return cost;
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for(int i = fixed; i < targets.length; i++) {
+            int target = targets[fixed];
+            targets[fixed] = targets[i];
+            targets[i] = target;
+            best = Math.min(best, bruteForceTour(legs, targets, fixed + 1));
+            targets[i] = targets[fixed];
+            targets[fixed] = target;
+        }
+        return best;
+    }
+
+    @Test
+    public void testLegChangeLogProducers() throws Exception {
+        int producers = 4;
+        int changes = 20000;
+        LegChangeLog log = new LegChangeLog(1 << 17);
+        int[] next = new int[producers];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for(int i = 0; i < changes; i++) {
+                    log.publish(producer, i, i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        LegChangeLog.Consumer consumer = (from, to, cost) -> {
+            assertThat(to).isEqualTo(next[from]);
+            assertThat(cost).isEqualTo((double) to);
+            next[from]++;
+        };
+        start.countDown();
+        while(threads.stream().anyMatch(Thread::isAlive)) {
+            assertThat(log.drain(consumer)).isTrue();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(log.drain(consumer)).isTrue();
+        for(int p = 0; p < producers; p++) {
+            assertThat(next[p]).isEqualTo(changes);
+        }
+    }
+
+    @Test
+    public void testLegChangeLogOverflow() {
+        LegChangeLog log = new LegChangeLog(4);
+        List<Double> drained = new ArrayList<>();
+        for(int i = 0; i < 6; i++) {
+            log.publish(0, 1, i);
+        }
+        assertThat(log.drain((from, to, cost) -> drained.add(cost))).isFalse();
+        assertThat(drained).isEmpty();
+        log.publish(0, 1, 6.0);
+        assertThat(log.drain((from, to, cost) -> drained.add(cost))).isTrue();
+        assertThat(drained).containsExactly(6.0);
+
+        Graph graph = new Graph();
+        for(int i = 0; i < 3; i++) {
+            graph.addNode(i, -i, -i);
+        }
+        schmitt.mmas.aco.router.Globals globals = new schmitt.mmas.aco.router.Globals();
+        globals.graph = graph;
+        RouteManager routeManager = globals.routeManager;
+        routeManager.addRoute(0, 1);
+        routeManager.addRoute(1, 2);
+        Route first = routeManager.getRoute(0, 1);
+        Route second = routeManager.getRoute(1, 2);
+        for(int i = 10000; i > 0; i--) {
+            first.setExactResult(new int[] {0, 1}, i);
+        }
+        second.setExactResult(new int[] {1, 2}, 5.0);
+        assertThat(routeManager.update()).isTrue();
+        double[] costs = routeManager.getCosts();
+        assertThat(costs[routeManager.slot(first.getFromIndex(), first.getToIndex())]).isEqualTo(1.0);
+        assertThat(costs[routeManager.slot(second.getFromIndex(), second.getToIndex())]).isEqualTo(5.0);
+        assertThat(routeManager.update()).isFalse();
+    }
+
+    @Test(timeout = 60000)
+    public void testIslandFailure() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
+        Graph graph = JSONConverter.readGraph(jsonFile);
+
+        IslandPathSolver islandSolver = new IslandPathSolver(graph, graph.getNode(553), graph.getNode(1201), 4);
+        islandSolver.setSeed(1);
+        // island 1 fails in its own iterations, long before the first migration
+        islandSolver.setMigrationInterval(1000);
+        islandSolver.setup();
+        IllegalStateException failure = new IllegalStateException("island failed");
+        islandSolver.getIsland(1).setPathListener((route, cost) -> {
+            throw failure;
+        });
+
+        assertThatThrownBy(islandSolver::solve).isInstanceOf(RuntimeException.class).hasCause(failure);
+    }
+
+    @Test
+    public void testLegCache() throws Exception {
+        Graph graph = new Graph();
+        graph.addNode(10, -1, -1);
+        graph.addNode(20, -2, -2);
+        graph.addNode(30, -3, -3);
+        graph.addEdge(10, 20, 5.0);
+        graph.addEdge(20, 30, 6.0);
+        CompactGraph compact = graph.getCompact();
+
+        File directory = Files.createTempDirectory("legcache").toFile();
+        // 16 byte header and 4 bytes per node, room for two three-node entries
+        LegCache cache = new LegCache(directory.getPath(), 2 * (16 + 3 * 4));
+
+        cache.put(compact, 10, 30, new Integer[] {10, 20, 30}, 11.0);
+        assertThat(cache.get(compact, 10, 30).getRoute()).containsExactly(10, 20, 30);
+        assertThat(cache.get(compact, 10, 30).getCost()).isEqualTo(11.0);
+        assertThat(cache.get(compact, 30, 10)).isNull();
+
+        cache.put(compact, 10, 30, new Integer[] {10, 30, 30}, 12.0);
+        assertThat(cache.get(compact, 10, 30).getCost()).isEqualTo(11.0);
+        cache.put(compact, 10, 30, new Integer[] {10, 20, 30}, 10.0);
+        assertThat(cache.get(compact, 10, 30).getCost()).isEqualTo(10.0);
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.put(compact, 20, 30, new Integer[] {20, 10, 30}, 7.0);
+        cache.get(compact, 10, 30);
+        cache.put(compact, 30, 20, new Integer[] {30, 10, 20}, 8.0);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getBytes()).isEqualTo(2 * (16 + 3 * 4));
+        assertThat(cache.get(compact, 20, 30)).isNull();
+        assertThat(cache.get(compact, 10, 30)).isNotNull();
+        assertThat(cache.get(compact, 30, 20)).isNotNull();
+        assertThat(new LegCache(directory.getPath(), 2 * (16 + 3 * 4)).size()).isEqualTo(2);
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith("-30-20.leg"));
+        assertThat(files).hasSize(1);
+        Files.write(files[0].toPath(), new byte[] {1, 2, 3});
+        assertThat(cache.get(compact, 30, 20)).isNull();
+        assertThat(files[0]).doesNotExist();
+        assertThat(cache.size()).isEqualTo(1);
+
+        Graph other = new Graph();
+        other.addNode(10, -1, -1);
+        other.addNode(20, -2, -2);
+        other.addNode(30, -3, -3);
+        other.addEdge(10, 20, 5.0);
+        other.addEdge(20, 30, 6.5);
+        assertThat(other.getCompact().getFingerprint()).isNotEqualTo(compact.getFingerprint());
+        assertThat(cache.get(other.getCompact(), 10, 30)).isNull();
+
+        for(File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testLegCacheBrokenRoute() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
+        Graph graph = JSONConverter.readGraph(jsonFile);
+        CompactGraph compact = graph.getCompact();
+        List<Node> targets = Arrays.asList(graph.getNode(553), graph.getNode(1201), graph.getNode(43));
+
+        RouteSolver exactSolver = new RouteSolver(graph, graph.getNode(553), targets);
+        exactSolver.setLegMode(LegMode.EXACT);
+        exactSolver.setup();
+        Route exact = exactSolver.getRouteManager().getRoute(553, 1201);
+        exactSolver.shutdown();
+
+        File directory = Files.createTempDirectory("legcache").toFile();
+        LegCache cache = new LegCache(directory.getPath(), 1 << 20);
+        cache.put(compact, 553, 1201, exact.getBestRoute(), exact.getBestCost());
+        // right ends, but 1201 and 43 are not adjacent
+        assertThat(compact.edgeIndex(compact.indexOf(1201), compact.indexOf(43))).isNegative();
+        cache.put(compact, 1201, 43, new Integer[] {1201, 43}, 1.0);
+        // a route of another leg
+        cache.put(compact, 43, 553, exact.getBestRoute(), 1.0);
+        assertThat(cache.size()).isEqualTo(3);
+
+        RouteSolver routeSolver = new RouteSolver(graph, graph.getNode(553), targets);
+        routeSolver.setLegCache(cache, true);
+        routeSolver.setup();
+        RouteManager routeManager = routeSolver.getRouteManager();
+        assertThat(routeManager.getRoute(553, 1201).finished()).isTrue();
+        assertThat(routeManager.getRoute(553, 1201).getBestCost()).isEqualTo(exact.getBestCost());
+        assertThat(routeManager.getRoute(1201, 43).finished()).isFalse();
+        assertThat(routeManager.getRoute(43, 553).finished()).isFalse();
+        routeSolver.shutdown();
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.get(compact, 1201, 43)).isNull();
+        assertThat(cache.get(compact, 43, 553)).isNull();
+
+        for(File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testLiveTargetsExact() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
+        Graph graph = JSONConverter.readGraph(jsonFile);
+
+        List<Node> target = new ArrayList<>();
+        for(int id : new int[] {553, 1201, 43, 171}) {
+            target.add(graph.getNode(id));
+        }
+        RouteSolver routeSolver = new RouteSolver(graph, graph.getNode(553), target);
+        routeSolver.setSeed(1);
+        routeSolver.setLegMode(LegMode.EXACT);
+        routeSolver.addTarget(graph.getNode(2336));
+        SolutionHandle handle = routeSolver.getSolution();
+        routeSolver.setup();
+        for(int i = 0; i < 20; i++) {
+            routeSolver.iterate();
+        }
+
+        // four added targets grow the route manager's capacity, which moves every trail
+        RouteManager routeManager = routeSolver.getRouteManager();
+        Set<Route> legs = new HashSet<>(routeManager.getRoutes());
+        Map<Route, Double> trails = new HashMap<>();
+        for(Route route : legs) {
+            trails.put(route, routeSolver.getPheromone(route.getSourceNode(), route.getTargetNode()));
+        }
+        int capacity = routeManager.getCapacity();
+        for(int id : new int[] {103, 1980, 200, 237}) {
+            routeSolver.addTarget(graph.getNode(id));
+        }
+        routeSolver.updateTargets();
+        assertThat(routeManager.getCapacity()).isGreaterThan(capacity);
+        assertThat(legs).hasSize(5 * 4);
+        assertThat(routeManager.getRoutes()).hasSize(legs.size() + 2 * 5 + 2 * 6 + 2 * 7 + 2 * 8);
+        assertThat(routeManager.getRoutes()).containsAll(legs);
+        for(Route route : legs) {
+            assertThat(routeSolver.getPheromone(route.getSourceNode(), route.getTargetNode())).isEqualTo(trails.get(route));
+        }
+
+        for(int i = 0; i < 20; i++) {
+            routeSolver.iterate();
+        }
+        for(int id : new int[] {274, 311, 348}) {
+            routeSolver.addTarget(graph.getNode(id));
+        }
+        routeSolver.removeTarget(graph.getNode(43));
+        routeSolver.removeTarget(graph.getNode(1980));
+        routeSolver.updateTargets();
+        for(int i = 0; i < 20; i++) {
+            routeSolver.iterate();
+        }
+        routeSolver.shutdown();
+
+        Set<Integer> live = new HashSet<>(Arrays.asList(553, 1201, 171, 2336, 103, 200, 237, 274, 311, 348));
+        assertThat(routeManager.getTargetCount()).isEqualTo(live.size());
+        assertThat(routeManager.getRoutes()).hasSize(live.size() * (live.size() - 1));
+        Stack<Node> tour = routeSolver.getBestSoFar().getTour();
+        List<Integer> ids = new ArrayList<>();
+        for(Node node : tour) {
+            ids.add(node.getId());
+        }
+        assertThat(ids.get(0)).isEqualTo(553);
+        assertThat(ids.get(ids.size() - 1)).isEqualTo(553);
+        assertThat(ids.subList(0, ids.size() - 1)).containsExactlyInAnyOrder(live.toArray(new Integer[0]));
+        assertThat(routeSolver.getResultCost()).isLessThan(Double.MAX_VALUE);
+        assertThat(handle.getBest().getCost()).isEqualTo(routeSolver.getResultCost());
+        assertThat(handle.getBest().getRoute()).containsExactly(routeSolver.getResultRoute());
+
+        Solution cheaper = new Solution(new Integer[] {553}, 1.0);
+        Solution costlier = new Solution(new Integer[] {553, 1201, 553}, 2.0);
+        SolutionHandle replaced = new SolutionHandle();
+        replaced.offer(cheaper);
+        replaced.offer(costlier);
+        assertThat(replaced.getBest()).isSameAs(cheaper);
+        replaced.replace(costlier);
+        assertThat(replaced.getBest()).isSameAs(costlier);
+        replaced.complete(cheaper);
+        replaced.complete(costlier);
+        assertThat(replaced.getBest()).isSameAs(cheaper);
+        assertThat(replaced.getResult().join()).isSameAs(cheaper);
+    }
+
+    @Test
+    public void testClusteredRouteJoinville() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
+        Graph graph = JSONConverter.readGraph(jsonFile);
+        CompactGraph compact = graph.getCompact();
+
+        // targets reachable from the source and back
+        SplittableRandom random = new SplittableRandom(7);
+        Set<Integer> ids = new LinkedHashSet<>();
+        ids.add(553);
+        while(ids.size() < 30) {
+            int id = graph.getNodeByIndex(random.nextInt(graph.getNodesLength())).getId();
+            DistanceMatrix matrix = DistanceMatrix.compute(compact, new int[] {553, id});
+            if(matrix.getPath(0, 1) != null && matrix.getPath(1, 0) != null) {
+                ids.add(id);
+            }
+        }
+        List<Node> target = new ArrayList<>();
+        for(int id : ids) {
+            target.add(graph.getNode(id));
+        }
+
+        ClusteredRouteSolver clusteredSolver = new ClusteredRouteSolver(graph, graph.getNode(553), target, 3);
+        clusteredSolver.setSeed(1);
+        clusteredSolver.setParallelism(3);
+        clusteredSolver.setNumberWorkers(3);
+        clusteredSolver.setMaxTime(1);
+        clusteredSolver.setLegMode(LegMode.EXACT);
+        clusteredSolver.setup();
+        assertThat(clusteredSolver.getClusters()).hasSize(3);
+        clusteredSolver.solve();
+
+        Integer[] route = clusteredSolver.getResultRoute();
+        assertThat(route[0]).isEqualTo(553);
+        assertThat(route[route.length - 1]).isEqualTo(553);
+        assertThat(route).contains(ids.toArray(new Integer[0]));
+        double[] edgeCosts = schmitt.mmas.aco.path.Globals.calculateEdgeCosts(compact);
+        double cost = 0.0;
+        for(int i = 0; i < route.length - 1; i++) {
+            int edge = compact.edgeIndex(compact.indexOf(route[i]), compact.indexOf(route[i + 1]));
+            assertThat(edge).isNotNegative();
+            cost += edgeCosts[edge];
+        }
+        assertThat(clusteredSolver.getResultCost()).isCloseTo(cost, offset(1e-6));
+    }
+
+    @Test
+    public void testStatisticsRecorder() throws Exception {
+        for(StatisticsFormat format : StatisticsFormat.values()) {
+            File file = File.createTempFile("statistics", "." + format.name().toLowerCase());
+            file.deleteOnExit();
+            StatisticsRecorder recorder = new StatisticsRecorder(10, file.getPath(), format);
+            assertThat(recorder.getCapacity()).isEqualTo(16);
+
+            // well within the first drain period: the ring fills up and the rest is dropped
+            for(int iteration = 0; iteration < 48; iteration++) {
+                recorder.record(iteration, iteration * 1.5, iteration, iteration * 2.0, iteration * 0.5);
+            }
+            assertThat(recorder.getDropped()).isEqualTo(32);
+            recorder.close();
+
+            List<Integer> written = new ArrayList<>();
+            if(format == StatisticsFormat.CSV) {
+                List<String> lines = Files.readAllLines(file.toPath());
+                assertThat(lines.get(0)).isEqualTo("iteration,mean,best,worst,bestSoFar");
+                for(String line : lines.subList(1, lines.size())) {
+                    String[] values = line.split(",");
+                    int iteration = Integer.parseInt(values[0]);
+                    assertThat(Double.parseDouble(values[1])).isEqualTo(iteration * 1.5);
+                    assertThat(Double.parseDouble(values[2])).isEqualTo(iteration);
+                    assertThat(Double.parseDouble(values[3])).isEqualTo(iteration * 2.0);
+                    assertThat(Double.parseDouble(values[4])).isEqualTo(iteration * 0.5);
+                    written.add(iteration);
+                }
+            } else {
+                assertThat(file.length()).isEqualTo(16 * (4 + 4 * 8));
+                try(DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+                    for(int record = 0; record < 16; record++) {
+                        int iteration = in.readInt();
+                        assertThat(in.readDouble()).isEqualTo(iteration * 1.5);
+                        assertThat(in.readDouble()).isEqualTo(iteration);
+                        assertThat(in.readDouble()).isEqualTo(iteration * 2.0);
+                        assertThat(in.readDouble()).isEqualTo(iteration * 0.5);
+                        written.add(iteration);
+                    }
+                }
+            }
+            // recorded minus dropped, oldest first
+            assertThat(written).hasSize(48 - 32);
+            for(int record = 0; record < written.size(); record++) {
+                assertThat(written.get(record)).isEqualTo(record);
+            }
+
+            // after close the records stay in memory and the ring wraps around
+            for(int iteration = 48; iteration < 68; iteration++) {
+                recorder.record(iteration, iteration * 1.5, iteration, iteration * 2.0, iteration * 0.5);
+            }
+            assertThat(recorder.getDropped()).isEqualTo(32);
+            Map<Integer, Double> means = recorder.getMeans();
+            assertThat(new ArrayList<>(means.keySet())).hasSize(16).startsWith(52).endsWith(67);
+            for(Map.Entry<Integer, Double> mean : means.entrySet()) {
+                assertThat(mean.getValue()).isEqualTo(mean.getKey() * 1.5);
+            }
+            assertThat(recorder.getBestsSoFar().get(67)).isEqualTo(67 * 0.5);
+        }
+    }
+
     @Test
     public void testVisualizerMap() throws Exception {
         ClassLoader classLoader = getClass().getClassLoader();
@@ -200,15 +873,15 @@ public class TestGraphTools {
             {2336, 155 }
         };
 
+        ClassLoader classLoader = getClass().getClassLoader();
+        String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
+        Graph graph = JSONConverter.readGraph(jsonFile);
+
         for(int t = 0; t < testCases.length; t++) {
 
             int fromId = testCases[t][0];
             int toId = testCases[t][1];
 
-            ClassLoader classLoader = getClass().getClassLoader();
-            String jsonFile = classLoader.getResource("joinville.json").getFile().toString();
-            Graph graph = JSONConverter.readGraph(jsonFile);
-
             Map<Integer, Double[]> iterationMean = new TreeMap<>();
             Map<Integer, Double[]> iterationBest = new TreeMap<>();
             Map<Integer, Double[]> iterationWorst = new TreeMap<>();